@@ -0,0 +1,69 @@
+package cloud.cleo.chimesma.benchmarks;
+
+import cloud.cleo.chimesma.examples.actions.ExampleFlow;
+import cloud.cleo.chimesma.model.SMARequest.SMAEventType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end cost of a single SMA invocation: JSON in, Flow dispatch, JSON out. This is the same entry point Lambda
+ * calls, so the result is what a warm invocation costs before any network calls made by the Flow itself.
+ *
+ * Run with the GC profiler to get allocation per event type (gc.alloc.rate.norm):
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar FlowDispatchBenchmark -prof gc
+ * </pre>
+ *
+ * @author sjensen
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+    // The Take Back and Transfer Action builds a DynamoDB client when the Example Flow is loaded
+    "-Daws.region=us-east-1",
+    "-Dlog4j2.configurationFile=log4j2-bench.xml"
+})
+public class FlowDispatchBenchmark {
+
+    @Param({"NEW_INBOUND_CALL", "ACTION_SUCCESSFUL", "DIGITS_RECEIVED", "ACTION_FAILED", "HANGUP", "CALL_UPDATE_REQUESTED"})
+    public SMAEventType eventType;
+
+    private ExampleFlow flow;
+
+    private byte[] event;
+
+    private ByteArrayOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        flow = new ExampleFlow();
+        event = SMAEvents.replayable(flow, eventType);
+        out = new ByteArrayOutputStream(8192);
+    }
+
+    @Benchmark
+    public int handleRequest() throws IOException {
+        out.reset();
+        flow.handleRequest(new ByteArrayInputStream(event), out, null);
+        return out.size();
+    }
+
+}
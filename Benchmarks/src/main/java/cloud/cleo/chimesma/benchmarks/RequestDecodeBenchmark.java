@@ -0,0 +1,67 @@
+package cloud.cleo.chimesma.benchmarks;
+
+import cloud.cleo.chimesma.model.SMARequest;
+import cloud.cleo.chimesma.model.SMARequest.SMAEventType;
+import cloud.cleo.chimesma.model.SMARequestReader;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding an SMA event with the streaming reader versus binding the whole event with Jackson.
+ *
+ * @author sjensen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestDecodeBenchmark {
+
+    @Param({"NEW_INBOUND_CALL", "ACTION_SUCCESSFUL", "ACTION_FAILED", "CALL_UPDATE_REQUESTED"})
+    public SMAEventType eventType;
+
+    private ObjectMapper mapper;
+
+    private SMARequestReader reader;
+
+    private byte[] event;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        reader = new SMARequestReader(mapper);
+        event = mapper.writeValueAsBytes(SMAEvents.load(eventType));
+    }
+
+    @Benchmark
+    public SMARequest databind() throws IOException {
+        return mapper.readValue(event, SMARequest.class);
+    }
+
+    @Benchmark
+    public SMARequest streaming() throws IOException {
+        return reader.read(event);
+    }
+
+    @Benchmark
+    public Object streamingWithActionData() throws IOException {
+        return reader.read(event).getActionData();
+    }
+}
@@ -0,0 +1,141 @@
+package cloud.cleo.chimesma.benchmarks;
+
+import cloud.cleo.chimesma.actions.AbstractFlow;
+import static cloud.cleo.chimesma.actions.AbstractFlow.CURRENT_ACTION_ID;
+import static cloud.cleo.chimesma.actions.AbstractFlow.CURRENT_ACTION_ID_LIST;
+import static cloud.cleo.chimesma.actions.ReceiveDigitsAction.RECEIVE_DIGITS_ID;
+import cloud.cleo.chimesma.actions.TransactionAttributeCodec;
+import cloud.cleo.chimesma.model.SMARequest.SMAEventType;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Recorded SMA events (src/main/resources/events) that are replayed through a Flow.
+ *
+ * Action Id's are assigned as the Flow is built, so the recorded events carry no Transaction Attributes. Before an
+ * event is replayed, the attributes are taken from a live NEW_INBOUND_CALL against the same Flow instance so the
+ * event lands on a real Action (for the Example Flow that is the Main Menu).
+ *
+ * @author sjensen
+ */
+public final class SMAEvents {
+
+    private final static Logger log = LogManager.getLogger(SMAEvents.class);
+
+    private final static ObjectMapper mapper = new ObjectMapper();
+
+    private final static TransactionAttributeCodec codec = new TransactionAttributeCodec(mapper);
+
+    private final static TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    // Upper bound when looking for an Action Id by probing the Flow
+    private final static int MAX_PROBE_ID = 256;
+
+    private SMAEvents() {
+    }
+
+    /**
+     * Load the recorded event for the given type.
+     *
+     * @param type
+     * @return mutable JSON tree of the event
+     * @throws IOException
+     */
+    public static ObjectNode load(SMAEventType type) throws IOException {
+        try (var in = SMAEvents.class.getResourceAsStream("/events/" + type + ".json")) {
+            if (in == null) {
+                throw new IllegalArgumentException("There is no recorded event for " + type);
+            }
+            return (ObjectNode) mapper.readTree(in);
+        }
+    }
+
+    /**
+     * Get the bytes for an event that can be replayed against the flow over and over with the same result.
+     *
+     * @param flow
+     * @param type
+     * @return JSON bytes for the event
+     * @throws IOException
+     */
+    public static byte[] replayable(AbstractFlow flow, SMAEventType type) throws IOException {
+        final var event = load(type);
+        if (type == SMAEventType.NEW_INBOUND_CALL) {
+            return mapper.writeValueAsBytes(event);
+        }
+
+        // Responses carry the compact attributes, decode so the engine keys can be worked with by name
+        final var compact = mapper.convertValue(invoke(flow, load(SMAEventType.NEW_INBOUND_CALL)).path("TransactionAttributes"), MAP_TYPE);
+        final ObjectNode attrs = mapper.valueToTree(codec.decode(compact));
+
+        switch (type) {
+            case DIGITS_RECEIVED -> {
+                // The Example Flow has no ReceiveDigits Action, so deliver the digits to the Action waiting on input
+                attrs.put(RECEIVE_DIGITS_ID, attrs.path(CURRENT_ACTION_ID).asText());
+            }
+            case CALL_UPDATE_REQUESTED -> {
+                // Call updates are only handled while the call is at the Take Back and Transfer Action
+                final var tbt = findCallUpdateTarget(flow, event, attrs);
+                if (tbt != null) {
+                    attrs.setAll(tbt);
+                } else {
+                    log.warn("No Action in the Flow handles CALL_UPDATE_REQUESTED, replaying against the current Action");
+                }
+            }
+            default -> {
+            }
+        }
+
+        callDetails(event).set("TransactionAttributes", attrs);
+        return mapper.writeValueAsBytes(event);
+    }
+
+    /**
+     * Run the event through the Flow using the same entry point Lambda uses.
+     *
+     * @param flow
+     * @param event
+     * @return the SMA response as a JSON tree
+     * @throws IOException
+     */
+    public static JsonNode invoke(AbstractFlow flow, JsonNode event) throws IOException {
+        final var out = new ByteArrayOutputStream();
+        flow.handleRequest(new ByteArrayInputStream(mapper.writeValueAsBytes(event)), out, null);
+        return mapper.readTree(out.toByteArray());
+    }
+
+    /**
+     * Walk the Action Id's until a Call Update Request results in the LEG-B Hangup that the Example Flow returns when
+     * a transfer has been requested.
+     */
+    private static ObjectNode findCallUpdateTarget(AbstractFlow flow, ObjectNode event, ObjectNode attrs) throws IOException {
+        for (int id = 1; id <= MAX_PROBE_ID; id++) {
+            final var probeAttrs = attrs.deepCopy()
+                    .put(CURRENT_ACTION_ID, Integer.toString(id))
+                    .put(CURRENT_ACTION_ID_LIST, Integer.toString(id));
+            final var probe = event.deepCopy();
+            callDetails(probe).set("TransactionAttributes", probeAttrs);
+
+            final var action = invoke(flow, probe).path("Actions").path(0);
+            if ("Hangup".equals(action.path("Type").asText())
+                    && "LEG-B".equals(action.path("Parameters").path("ParticipantTag").asText())) {
+                log.info("Call Update Request is handled by Action ID {}", id);
+                return probeAttrs;
+            }
+        }
+        return null;
+    }
+
+    private static ObjectNode callDetails(ObjectNode event) {
+        return (ObjectNode) event.get("CallDetails");
+    }
+}
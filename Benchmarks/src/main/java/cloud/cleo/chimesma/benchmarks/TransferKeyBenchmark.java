@@ -0,0 +1,52 @@
+package cloud.cleo.chimesma.benchmarks;
+
+import cloud.cleo.chimesma.actions.TransferKeyAllocator;
+import java.text.DecimalFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Take back and transfer key generation, the allocator compared to the original Random and DecimalFormat per key.
+ *
+ * Run with -t to see how the allocator holds up with many threads sharing it.
+ *
+ * @author sjensen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TransferKeyBenchmark {
+
+    private final TransferKeyAllocator allocator = new TransferKeyAllocator();
+
+    @Benchmark
+    public String allocator() {
+        return allocator.next();
+    }
+
+    /**
+     * What CallAndBridgeActionTBTDiversion used to do for every transfer.
+     *
+     * @return key
+     */
+    @Benchmark
+    public String randomDecimalFormat() {
+        final var rand = new Random();
+        DecimalFormat df = new DecimalFormat("+16122000000");
+        return df.format(rand.nextInt(1000000));
+    }
+}
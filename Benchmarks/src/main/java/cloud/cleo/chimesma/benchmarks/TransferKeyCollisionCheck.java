@@ -0,0 +1,79 @@
+package cloud.cleo.chimesma.benchmarks;
+
+import cloud.cleo.chimesma.actions.TransferKeyAllocator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Allocates a day of take back and transfer keys spread over many Lambda containers (keys live for a day) and counts
+ * the keys that were already in use, the same as the conditional write on the calls table would refuse. Like
+ * CallAndBridgeActionTBTDiversion, a container that hits a key in use moves elsewhere in the pool and tries up to 3
+ * keys before the transfer goes without one.
+ *
+ * <pre>
+ * java -cp Benchmarks/target/benchmarks.jar cloud.cleo.chimesma.benchmarks.TransferKeyCollisionCheck [keys] [containers] [prefixes]
+ * </pre>
+ *
+ * The original random key is checked the same way for comparison. Exits with 1 when a transfer with the allocator went
+ * without a key.
+ *
+ * @author sjensen
+ */
+public final class TransferKeyCollisionCheck {
+
+    private final static int MAX_KEY_ATTEMPTS = 3;
+
+    private TransferKeyCollisionCheck() {
+    }
+
+    public static void main(String[] args) {
+        final var keys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        final var containers = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final var prefixes = args.length > 2 ? List.of(args[2].split(",")) : List.of("+16122");
+        final var rand = new Random();
+
+        final var allocators = new TransferKeyAllocator[containers];
+        for (int i = 0; i < containers; i++) {
+            allocators[i] = new TransferKeyAllocator(prefixes);
+        }
+
+        final var seen = new HashSet<String>(keys * 2);
+        int allocatorCollisions = 0;
+        int allocatorFailed = 0;
+        final var start = System.nanoTime();
+        for (int i = 0; i < keys; i++) {
+            // Transfers land on containers at random
+            final var allocator = allocators[rand.nextInt(containers)];
+            var attempt = 1;
+            while (!seen.add(allocator.next())) {
+                allocatorCollisions++;
+                if (attempt++ == MAX_KEY_ATTEMPTS) {
+                    allocatorFailed++;
+                    break;
+                }
+                allocator.collided();
+            }
+        }
+        final var millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("Allocator: %,d keys over %d containers and %d prefixes, %d collisions, %d without a key (%d ms)%n",
+                keys, containers, prefixes.size(), allocatorCollisions, allocatorFailed, millis);
+
+        seen.clear();
+        int randomCollisions = 0;
+        int randomFailed = 0;
+        for (int i = 0; i < keys; i++) {
+            var attempt = 1;
+            while (!seen.add(String.format("+16122%06d", rand.nextInt(1000000)))) {
+                randomCollisions++;
+                if (attempt++ == MAX_KEY_ATTEMPTS) {
+                    randomFailed++;
+                    break;
+                }
+            }
+        }
+        System.out.printf("Random: %,d keys, %d collisions, %d without a key%n", keys, randomCollisions, randomFailed);
+
+        System.exit(allocatorFailed > 0 ? 1 : 0);
+    }
+}
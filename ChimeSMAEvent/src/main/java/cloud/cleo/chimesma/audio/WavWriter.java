@@ -0,0 +1,117 @@
+package cloud.cleo.chimesma.audio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps the raw PCM from Polly (signed 16 bit little endian, mono) in a WAV header so Chime can play it.
+ *
+ * Polly PCM is already in the WAV sample format, so there is nothing to convert, only the 44 byte RIFF header has to
+ * be written in front of the samples. Used for the prompts rendered at deploy time and by the Flow library at runtime.
+ *
+ * https://docs.aws.amazon.com/chime-sdk/latest/dg/play-audio.html
+ *
+ * @author sjensen
+ */
+public final class WavWriter {
+
+    public final static int SAMPLE_RATE = 8000;
+    public final static int HEADER_SIZE = 44;
+
+    private final static short CHANNELS = 1;
+    private final static short BITS_PER_SAMPLE = 16;
+    private final static short FORMAT_PCM = 1;
+
+    private WavWriter() {
+    }
+
+    /**
+     * Read all the PCM and return it as a WAV.
+     *
+     * @param pcm Polly PCM output at {@value #SAMPLE_RATE} Hz
+     * @return the WAV file
+     * @throws IOException
+     */
+    public static Wav fromPcm(InputStream pcm) throws IOException {
+        final var out = new Buffer();
+        // Room for the header, filled in once the data length is known
+        out.write(new byte[HEADER_SIZE]);
+        pcm.transferTo(out);
+        out.writeHeader();
+        return new Wav(out.buffer(), out.size());
+    }
+
+    /**
+     * A WAV held in memory.
+     *
+     * @param bytes may be larger than the WAV
+     * @param length bytes in the WAV
+     */
+    public record Wav(byte[] bytes, int length) {
+
+        /**
+         * @return stream of the WAV, without copying the bytes
+         */
+        public InputStream stream() {
+            return new ByteArrayInputStream(bytes, 0, length);
+        }
+    }
+
+    /**
+     * Exposes the internal buffer so the WAV never has to be copied.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            // A few seconds of audio
+            super(64 * 1024);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void writeHeader() {
+            final int dataSize = count - HEADER_SIZE;
+            final int blockAlign = CHANNELS * BITS_PER_SAMPLE / 8;
+
+            int i = 0;
+            i = ascii(i, "RIFF");
+            i = int32(i, 36 + dataSize);
+            i = ascii(i, "WAVE");
+            i = ascii(i, "fmt ");
+            i = int32(i, 16);
+            i = int16(i, FORMAT_PCM);
+            i = int16(i, CHANNELS);
+            i = int32(i, SAMPLE_RATE);
+            i = int32(i, SAMPLE_RATE * blockAlign);
+            i = int16(i, blockAlign);
+            i = int16(i, BITS_PER_SAMPLE);
+            i = ascii(i, "data");
+            int32(i, dataSize);
+        }
+
+        private int ascii(int i, String s) {
+            for (int c = 0; c < 4; c++) {
+                buf[i++] = (byte) s.charAt(c);
+            }
+            return i;
+        }
+
+        private int int32(int i, int value) {
+            buf[i++] = (byte) value;
+            buf[i++] = (byte) (value >>> 8);
+            buf[i++] = (byte) (value >>> 16);
+            buf[i++] = (byte) (value >>> 24);
+            return i;
+        }
+
+        private int int16(int i, int value) {
+            buf[i++] = (byte) value;
+            buf[i++] = (byte) (value >>> 8);
+            return i;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package cloud.cleo.chimesma.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import java.io.IOException;
+
+/**
+ * Pre-rendered JSON for a response Action that only changes with the call ID.
+ *
+ * The Action is serialized once and split around its CallId value, so each response just writes the two halves with
+ * the call's ID between them instead of building and serializing the Parameters again.
+ *
+ * @author sjensen
+ */
+public final class ResponseTemplate {
+
+    private final ResponseActionType type;
+
+    // JSON up to the CallId value, or the whole Action when there is no CallId
+    private final String prefix;
+
+    // JSON after the CallId value, null when there is no CallId
+    private final String suffix;
+
+    private ResponseTemplate(ResponseActionType type, String prefix, String suffix) {
+        this.type = type;
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Create a template from an Action that was rendered for a call.
+     *
+     * @param writer used to serialize the Action
+     * @param action the rendered Action
+     * @param callId the call ID the Action was rendered with
+     * @return the template or null when the call ID can't be located unambiguously in the JSON
+     * @throws IOException
+     */
+    public static ResponseTemplate of(ObjectWriter writer, ResponseAction action, String callId) throws IOException {
+        final var json = writer.writeValueAsString(action);
+        final var quoted = '"' + new String(JsonStringEncoder.getInstance().quoteAsString(callId)) + '"';
+
+        final int idx = json.indexOf(quoted);
+        if (idx < 0) {
+            // Action doesn't carry a call ID at all (like Hangup with a Participant Tag)
+            return new ResponseTemplate(action.getType(), json, null);
+        }
+        if (json.indexOf(quoted, idx + quoted.length()) >= 0) {
+            // Call ID shows up somewhere else too, so it's not safe to splice
+            return null;
+        }
+        return new ResponseTemplate(action.getType(), json.substring(0, idx), json.substring(idx + quoted.length()));
+    }
+
+    /**
+     * The Action for a call.
+     *
+     * @param callId
+     * @return Action that writes the template with the call ID spliced in
+     */
+    public ResponseAction bind(String callId) {
+        return new Bound(this, callId);
+    }
+
+    /**
+     * A template bound to the call ID of the call being processed.
+     *
+     * @param template
+     * @param callId
+     */
+    public record Bound(ResponseTemplate template, String callId) implements ResponseAction, JsonSerializable {
+
+        @Override
+        public ResponseActionType getType() {
+            return template.type;
+        }
+
+        @Override
+        public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeRawValue(template.prefix);
+            if (template.suffix != null) {
+                if (callId == null) {
+                    gen.writeRaw("null");
+                } else {
+                    final var chars = JsonStringEncoder.getInstance().quoteAsString(callId);
+                    gen.writeRaw('"');
+                    gen.writeRaw(chars, 0, chars.length);
+                    gen.writeRaw('"');
+                }
+                gen.writeRaw(template.suffix);
+            }
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+            serialize(gen, provider);
+        }
+
+        @Override
+        public String toString() {
+            return template.suffix == null ? template.prefix : template.prefix + '"' + callId + '"' + template.suffix;
+        }
+    }
+}
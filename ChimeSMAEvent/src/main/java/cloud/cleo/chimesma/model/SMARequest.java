@@ -1,5 +1,6 @@
 package cloud.cleo.chimesma.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
@@ -69,6 +70,17 @@ public class SMARequest implements ErrorTypeMessage, Serializable {
     @JsonProperty("ActionData")
     private ResponseAction actionData;
 
+    /**
+     * Type of the Action Data, which unlike getActionData() does not require the Action Data to be decoded when the
+     * event was read with {@link SMARequestReader}.
+     *
+     * @return the type or null when there is no Action Data
+     */
+    @JsonIgnore
+    public ResponseActionType getActionDataType() {
+        return actionData != null ? actionData.getType() : null;
+    }
+
     @Data
     @Builder(setterPrefix = "with")
     @NoArgsConstructor
@@ -0,0 +1,281 @@
+package cloud.cleo.chimesma.model;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming decoder for SMA events.
+ *
+ * Only the parts of the event every invocation needs (event type, call details, participants, transaction attributes
+ * and the Action Data type) are decoded up front. The rest of the Action Data is kept as tokens and only bound to its
+ * model class when {@link SMARequest#getActionData()} is called. Should the event not be in the expected form, the
+ * regular Jackson binding is used instead.
+ *
+ * @author sjensen
+ */
+public final class SMARequestReader {
+
+    // Action Data classes by type, taken from the same @JsonSubTypes used for regular binding
+    private final static Map<ResponseActionType, Class<? extends ResponseAction>> ACTION_DATA_TYPES = actionDataTypes();
+
+    private final ObjectMapper mapper;
+
+    /**
+     * @param mapper used for Action Data and as the fall back for events that can't be streamed
+     */
+    public SMARequestReader(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Decode an SMA event.
+     *
+     * @param in
+     * @return the event
+     * @throws IOException
+     */
+    public SMARequest read(InputStream in) throws IOException {
+        return read(in.readAllBytes());
+    }
+
+    /**
+     * Decode an SMA event.
+     *
+     * @param json
+     * @return the event
+     * @throws IOException
+     */
+    public SMARequest read(byte[] json) throws IOException {
+        try (var p = mapper.getFactory().createParser(json)) {
+            return readRequest(p);
+        } catch (IOException | IllegalArgumentException e) {
+            // Something we don't know about (new enum value, unknown Action Data type, etc.), let Jackson decide
+            return mapper.readValue(json, SMARequest.class);
+        }
+    }
+
+    private SMARequest readRequest(JsonParser p) throws IOException {
+        expect(p.nextToken(), JsonToken.START_OBJECT);
+        final var req = new LazySMARequest();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final var name = p.currentName();
+            p.nextToken();
+            switch (name) {
+                case "SchemaVersion" ->
+                    req.setSchemaVersion(text(p));
+                case "Sequence" ->
+                    req.setSequence(p.currentToken() == JsonToken.VALUE_NULL ? null : p.getValueAsInt());
+                case "InvocationEventType" ->
+                    req.setInvocationEventType(enumValue(p, SMARequest.SMAEventType.class));
+                case "CallDetails" ->
+                    req.setCallDetails(readCallDetails(p));
+                case "ErrorType" ->
+                    req.setErrorType(text(p));
+                case "ErrorMessage" ->
+                    req.setErrorMessage(text(p));
+                case "ActionData" ->
+                    readActionData(p, req);
+                default ->
+                    p.skipChildren();
+            }
+        }
+        return req;
+    }
+
+    private SMARequest.CallDetails readCallDetails(JsonParser p) throws IOException {
+        if (p.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(p.currentToken(), JsonToken.START_OBJECT);
+        final var cd = new SMARequest.CallDetails();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final var name = p.currentName();
+            p.nextToken();
+            switch (name) {
+                case "TransactionId" ->
+                    cd.setTransactionId(text(p));
+                case "TransactionAttributes" ->
+                    cd.setTransactionAttributes(readAttributes(p));
+                case "AwsAccountId" ->
+                    cd.setAwsAccountId(text(p));
+                case "AwsRegion" ->
+                    cd.setAwsRegion(text(p));
+                case "SipMediaApplicationId" ->
+                    cd.setSipMediaApplicationId(text(p));
+                case "Participants" ->
+                    cd.setParticipants(readParticipants(p));
+                default ->
+                    p.skipChildren();
+            }
+        }
+        return cd;
+    }
+
+    private Map<String, Object> readAttributes(JsonParser p) throws IOException {
+        if (p.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(p.currentToken(), JsonToken.START_OBJECT);
+        final var attrs = new LinkedHashMap<String, Object>();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final var name = p.currentName();
+            // Attributes are almost always strings, anything else is bound the same way Jackson would
+            attrs.put(name, p.nextToken() == JsonToken.VALUE_STRING ? p.getText() : mapper.readValue(p, Object.class));
+        }
+        return attrs;
+    }
+
+    private List<SMARequest.Participant> readParticipants(JsonParser p) throws IOException {
+        if (p.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(p.currentToken(), JsonToken.START_ARRAY);
+        final var list = new ArrayList<SMARequest.Participant>(2);
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            expect(p.currentToken(), JsonToken.START_OBJECT);
+            final var participant = new SMARequest.Participant();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final var name = p.currentName();
+                p.nextToken();
+                switch (name) {
+                    case "CallId" ->
+                        participant.setCallId(text(p));
+                    case "ParticipantTag" -> {
+                        final var tag = text(p);
+                        participant.setParticipantTag(tag == null ? null : ParticipantTag.valueOf(tag.replace("-", "_")));
+                    }
+                    case "To" ->
+                        participant.setTo(text(p));
+                    case "From" ->
+                        participant.setFrom(text(p));
+                    case "Direction" ->
+                        participant.setDirection(enumValue(p, SMARequest.Direction.class));
+                    case "StartTimeInMilliseconds" -> {
+                        final var start = text(p);
+                        participant.setStartTime(start == null ? null : Instant.ofEpochMilli(Long.decode(start)));
+                    }
+                    case "Status" ->
+                        participant.setStatus(enumValue(p, SMARequest.Status.class));
+                    default ->
+                        p.skipChildren();
+                }
+            }
+            list.add(participant);
+        }
+        return list;
+    }
+
+    /**
+     * Only the type is decoded, everything else is buffered for when the Action Data is asked for.
+     */
+    private void readActionData(JsonParser p, LazySMARequest req) throws IOException {
+        if (p.currentToken() == JsonToken.VALUE_NULL) {
+            return;
+        }
+        expect(p.currentToken(), JsonToken.START_OBJECT);
+        final var buffer = new TokenBuffer(p);
+        buffer.writeStartObject();
+        ResponseActionType type = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final var name = p.currentName();
+            p.nextToken();
+            if ("Type".equals(name)) {
+                // Type id isn't passed on to the model class when bound as a sub type either
+                type = enumValue(p, ResponseActionType.class);
+            } else {
+                buffer.writeFieldName(name);
+                buffer.copyCurrentStructure(p);
+            }
+        }
+        buffer.writeEndObject();
+
+        if (type == null || !ACTION_DATA_TYPES.containsKey(type)) {
+            throw new IllegalArgumentException("Unknown Action Data type " + type);
+        }
+        req.setPending(this, type, buffer);
+    }
+
+    private ResponseAction decodeActionData(ResponseActionType type, TokenBuffer buffer) {
+        try (var p = buffer.asParser(mapper)) {
+            return mapper.readValue(p, ACTION_DATA_TYPES.get(type));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not decode Action Data for " + type, e);
+        }
+    }
+
+    private static String text(JsonParser p) throws IOException {
+        return p.currentToken() == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+    }
+
+    private static <E extends Enum<E>> E enumValue(JsonParser p, Class<E> type) throws IOException {
+        final var value = text(p);
+        return value == null ? null : Enum.valueOf(type, value);
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) {
+        if (actual != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " but found " + actual);
+        }
+    }
+
+    private static Map<ResponseActionType, Class<? extends ResponseAction>> actionDataTypes() {
+        final var map = new EnumMap<ResponseActionType, Class<? extends ResponseAction>>(ResponseActionType.class);
+        try {
+            final var subTypes = SMARequest.class.getDeclaredField("actionData").getAnnotation(JsonSubTypes.class);
+            for (var subType : subTypes.value()) {
+                map.put(ResponseActionType.valueOf(subType.name()), subType.value().asSubclass(ResponseAction.class));
+            }
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+        return map;
+    }
+
+    /**
+     * Request that binds the Action Data the first time it is accessed.
+     */
+    private static class LazySMARequest extends SMARequest {
+
+        private transient SMARequestReader reader;
+        private transient ResponseActionType pendingType;
+        private transient TokenBuffer pending;
+
+        void setPending(SMARequestReader reader, ResponseActionType type, TokenBuffer buffer) {
+            this.reader = reader;
+            this.pendingType = type;
+            this.pending = buffer;
+        }
+
+        @Override
+        public ResponseAction getActionData() {
+            if (pending != null) {
+                super.setActionData(reader.decodeActionData(pendingType, pending));
+                pending = null;
+            }
+            return super.getActionData();
+        }
+
+        @Override
+        public void setActionData(ResponseAction actionData) {
+            pending = null;
+            super.setActionData(actionData);
+        }
+
+        @Override
+        public ResponseActionType getActionDataType() {
+            return pending != null ? pendingType : super.getActionDataType();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package cloud.cleo.chimesma.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Writes an SMA response straight to the Lambda output stream in one pass.
+ *
+ * The response envelope and Transaction Attributes are written directly, each Action is written with a writer for
+ * its class that is looked up once, so the output is the same as binding the whole {@link SMAResponse} with Jackson.
+ *
+ * @author sjensen
+ */
+public final class SMAResponseWriter {
+
+    private final ObjectMapper mapper;
+
+    // Values are written into the middle of the response, so never flush after each one
+    private final ObjectWriter valueWriter;
+
+    // Writers for each Action class
+    private final ClassValue<ObjectWriter> writers = new ClassValue<>() {
+        @Override
+        protected ObjectWriter computeValue(Class<?> type) {
+            return mapper.writerFor(type).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        }
+    };
+
+    /**
+     * @param mapper used for the Actions and any Transaction Attribute that is not a String
+     */
+    public SMAResponseWriter(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.valueWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Write the response.
+     *
+     * @param res
+     * @param out
+     * @throws IOException
+     */
+    public void write(SMAResponse res, OutputStream out) throws IOException {
+        try (var gen = mapper.getFactory().createGenerator(out)) {
+            write(res, gen);
+        }
+    }
+
+    /**
+     * Write the response while also handing the JSON that was written to the consumer (for debug logging). The
+     * response is still only serialized once.
+     *
+     * @param res
+     * @param out
+     * @param tee receives the JSON after it has been written
+     * @throws IOException
+     */
+    public void write(SMAResponse res, OutputStream out, Consumer<String> tee) throws IOException {
+        final var copy = new ByteArrayOutputStream(1024);
+        write(res, new TeeOutputStream(out, copy));
+        tee.accept(copy.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Pre-render an Action so later responses only need to splice in the call ID.
+     *
+     * @param action Action rendered for the current call
+     * @param callId the call ID it was rendered with
+     * @return the template or null when the Action can't be templated
+     * @throws IOException
+     */
+    public ResponseTemplate template(ResponseAction action, String callId) throws IOException {
+        return ResponseTemplate.of(writers.get(action.getClass()), action, callId);
+    }
+
+    private void write(SMAResponse res, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("SchemaVersion", res.getSchemaVersion());
+
+        final var actions = res.getActions();
+        gen.writeFieldName("Actions");
+        if (actions == null) {
+            gen.writeNull();
+        } else {
+            gen.writeStartArray();
+            for (var action : actions) {
+                if (action == null) {
+                    gen.writeNull();
+                } else {
+                    writers.get(action.getClass()).writeValue(gen, action);
+                }
+            }
+            gen.writeEndArray();
+        }
+
+        final var attrs = res.getTransactionAttributes();
+        if (attrs != null) {
+            gen.writeFieldName("TransactionAttributes");
+            writeAttributes(attrs, gen);
+        }
+        gen.writeEndObject();
+    }
+
+    private void writeAttributes(Map<String, Object> attrs, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        for (var entry : attrs.entrySet()) {
+            gen.writeFieldName(entry.getKey());
+            if (entry.getValue() instanceof String str) {
+                gen.writeString(str);
+            } else {
+                valueWriter.writeValue(gen, entry.getValue());
+            }
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * Sends everything written to a second stream as well.
+     */
+    private static class TeeOutputStream extends FilterOutputStream {
+
+        private final OutputStream copy;
+
+        TeeOutputStream(OutputStream out, OutputStream copy) {
+            super(out);
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            copy.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            copy.write(b, off, len);
+        }
+    }
+}
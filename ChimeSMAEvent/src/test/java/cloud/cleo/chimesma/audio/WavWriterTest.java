@@ -0,0 +1,104 @@
+package cloud.cleo.chimesma.audio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * WAVs written from Polly PCM must have a standard 44 byte header and be byte for byte what the JDK writes.
+ *
+ * @author sjensen
+ */
+public class WavWriterTest {
+
+    // What Polly returns for PCM
+    private final static AudioFormat POLLY_PCM = new AudioFormat(WavWriter.SAMPLE_RATE, 16, 1, true, false);
+
+    @Test
+    public void headerBytes() throws IOException {
+        final var pcm = pcm(1000);
+        final var wav = WavWriter.fromPcm(new ByteArrayInputStream(pcm));
+        final var header = ByteBuffer.wrap(wav.bytes(), 0, WavWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals(WavWriter.HEADER_SIZE + pcm.length, wav.length());
+        assertEquals("RIFF", ascii(header, 0));
+        assertEquals(36 + pcm.length, header.getInt(4));
+        assertEquals("WAVE", ascii(header, 8));
+        assertEquals("fmt ", ascii(header, 12));
+        assertEquals(16, header.getInt(16));
+        // PCM, mono
+        assertEquals((short) 1, header.getShort(20));
+        assertEquals((short) 1, header.getShort(22));
+        assertEquals(8000, header.getInt(24));
+        // Byte rate and block align for 16 bit mono
+        assertEquals(16000, header.getInt(28));
+        assertEquals((short) 2, header.getShort(32));
+        assertEquals((short) 16, header.getShort(34));
+        assertEquals("data", ascii(header, 36));
+        assertEquals(pcm.length, header.getInt(40));
+
+        assertArrayEquals(pcm, Arrays.copyOfRange(wav.bytes(), WavWriter.HEADER_SIZE, wav.length()));
+    }
+
+    @Test
+    public void sameAsTheJdk() throws IOException {
+        // Larger than the initial buffer so it has to grow
+        final var pcm = pcm(100_000);
+
+        assertArrayEquals(jdkWav(pcm), WavWriter.fromPcm(new ByteArrayInputStream(pcm)).stream().readAllBytes());
+    }
+
+    @Test
+    public void readsBackAsPollyPcm() throws IOException, UnsupportedAudioFileException {
+        final var pcm = pcm(4000);
+        final var wav = WavWriter.fromPcm(new ByteArrayInputStream(pcm));
+
+        try (var in = AudioSystem.getAudioInputStream(wav.stream())) {
+            assertTrue(POLLY_PCM.matches(in.getFormat()));
+            assertEquals(pcm.length / 2L, in.getFrameLength());
+            assertArrayEquals(pcm, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void emptyPcm() throws IOException {
+        final var wav = WavWriter.fromPcm(new ByteArrayInputStream(new byte[0]));
+
+        assertEquals(WavWriter.HEADER_SIZE, wav.length());
+        assertArrayEquals(jdkWav(new byte[0]), wav.stream().readAllBytes());
+    }
+
+    private static byte[] jdkWav(byte[] pcm) throws IOException {
+        final var out = new ByteArrayOutputStream();
+        try (var in = new AudioInputStream(new ByteArrayInputStream(pcm), POLLY_PCM, pcm.length / 2)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A tone as 16 bit little endian samples.
+     */
+    private static byte[] pcm(int samples) {
+        final var buffer = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            buffer.putShort((short) (Math.sin(i * 2 * Math.PI * 440 / WavWriter.SAMPLE_RATE) * 8000));
+        }
+        return buffer.array();
+    }
+
+    private static String ascii(ByteBuffer header, int offset) {
+        return new String(header.array(), offset, 4, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,97 @@
+package cloud.cleo.chimesma.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A template bound to a call must write exactly what Jackson writes for the Action rendered for that call.
+ *
+ * @author sjensen
+ */
+public class ResponseTemplateTest {
+
+    private final static ObjectMapper mapper = new ObjectMapper();
+
+    private final static SMAResponseWriter writer = new SMAResponseWriter(mapper);
+
+    private final static String RENDERED_ID = "be23f6a9-66f0-4d55-b6d9-b9e614a729ac";
+
+    private final static String OTHER_ID = "0d9a7a3e-1f2b-4c5d-8e9f-a0b1c2d3e4f5";
+
+    @Test
+    public void callIdIsSpliced() throws IOException {
+        final var template = writer.template(playAudio(RENDERED_ID, "main-menu-en-US.wav"), RENDERED_ID);
+        assertNotNull(template);
+
+        final var bound = template.bind(OTHER_ID);
+
+        assertEquals(ResponseActionType.PlayAudio, bound.getType());
+        assertEquals(mapper.writeValueAsString(playAudio(OTHER_ID, "main-menu-en-US.wav")), mapper.writeValueAsString(bound));
+    }
+
+    @Test
+    public void callIdIsEscaped() throws IOException {
+        final var template = writer.template(playAudio(RENDERED_ID, "main-menu-en-US.wav"), RENDERED_ID);
+        final var odd = "id with \"quotes\" and \\ ☎";
+
+        assertEquals(mapper.writeValueAsString(playAudio(odd, "main-menu-en-US.wav")), mapper.writeValueAsString(template.bind(odd)));
+    }
+
+    @Test
+    public void callIdThatNeedsEscapingIsFound() throws IOException {
+        final var escaped = "id \"1\"";
+        final var template = writer.template(playAudio(escaped, "main-menu-en-US.wav"), escaped);
+        assertNotNull(template);
+
+        assertEquals(mapper.writeValueAsString(playAudio(OTHER_ID, "main-menu-en-US.wav")), mapper.writeValueAsString(template.bind(OTHER_ID)));
+    }
+
+    @Test
+    public void absentCallIdIsWrittenAsIs() throws IOException {
+        final var hangup = ResponseHangup.builder().build();
+        final var template = writer.template(hangup, RENDERED_ID);
+        assertNotNull(template);
+
+        assertEquals(mapper.writeValueAsString(hangup), mapper.writeValueAsString(template.bind(OTHER_ID)));
+    }
+
+    @Test
+    public void duplicateCallIdIsNotTemplated() throws IOException {
+        // The call ID is also the prompt key, so there is no telling which one to splice
+        assertNull(writer.template(playAudio(RENDERED_ID, RENDERED_ID), RENDERED_ID));
+    }
+
+    @Test
+    public void boundTemplatesWriteLikeJacksonInAResponse() throws IOException {
+        final var template = writer.template(playAudio(RENDERED_ID, "main-menu-en-US.wav"), RENDERED_ID);
+        final var hangup = ResponseHangup.builder()
+                .withParameters(ResponseHangup.Parameters.builder().withCallId(OTHER_ID).withSipResponseCode(0).build())
+                .build();
+
+        final var out = new ByteArrayOutputStream();
+        writer.write(SMAResponse.builder().withActions(List.of(template.bind(OTHER_ID), hangup)).build(), out);
+
+        final var expected = SMAResponse.builder().withActions(List.of(playAudio(OTHER_ID, "main-menu-en-US.wav"), hangup)).build();
+        assertEquals(mapper.writeValueAsString(expected), out.toString(StandardCharsets.UTF_8));
+        // And the Jackson path writes bound templates the same way
+        assertEquals(mapper.writeValueAsString(expected),
+                mapper.writeValueAsString(SMAResponse.builder().withActions(List.of(template.bind(OTHER_ID), hangup)).build()));
+    }
+
+    private static ResponsePlayAudio playAudio(String callId, String key) {
+        return ResponsePlayAudio.builder()
+                .withParameters(ResponsePlayAudio.Parameters.builder()
+                        .withCallId(callId)
+                        .withAudioSource(ResponsePlayAudio.AudioSource.builder()
+                                .withBucketName("prompt-bucket")
+                                .withKey(key)
+                                .build())
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,181 @@
+package cloud.cleo.chimesma.model;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Events decoded with the streaming reader must match what Jackson binds from the same JSON.
+ *
+ * @author sjensen
+ */
+public class SMARequestReaderTest {
+
+    // Configured like the Flow's mapper
+    private final static ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final static SMARequestReader reader = new SMARequestReader(mapper);
+
+    private final static String CALL_ID = "be23f6a9-66f0-4d55-b6d9-b9e614a729ac";
+
+    private final static String ACTION_SUCCESSFUL = """
+            {
+                "SchemaVersion": "1.0",
+                "Sequence": 2,
+                "InvocationEventType": "ACTION_SUCCESSFUL",
+                "ActionData": {
+                    "Type": "PlayAudioAndGetDigits",
+                    "Parameters": {
+                        "CallId": "be23f6a9-66f0-4d55-b6d9-b9e614a729ac",
+                        "ParticipantTag": "LEG-A",
+                        "InputDigitsRegex": "^\\\\d{1}$",
+                        "AudioSource": {
+                            "Type": "S3",
+                            "BucketName": "prompt-bucket",
+                            "Key": "main-menu-en-US.wav"
+                        },
+                        "MinNumberOfDigits": 1,
+                        "MaxNumberOfDigits": 1,
+                        "Repeat": 2,
+                        "RepeatDurationInMilliseconds": 3000
+                    },
+                    "ReceivedDigits": "1"
+                },
+                "CallDetails": {
+                    "TransactionId": "7a4c0f2e-6d3b-4f5e-9a1c-2b8d7e6f5a41",
+                    "TransactionAttributes": {
+                        "locale": "en-US",
+                        "count": 3,
+                        "nested": { "a": [1, 2] }
+                    },
+                    "AwsAccountId": "123456789012",
+                    "AwsRegion": "us-east-1",
+                    "SipMediaApplicationId": "cf3e17cd-f4e5-44c3-ab04-325e6d4a1f2b",
+                    "SomethingNew": { "Ignored": [true] },
+                    "Participants": [
+                        {
+                            "CallId": "be23f6a9-66f0-4d55-b6d9-b9e614a729ac",
+                            "ParticipantTag": "LEG-A",
+                            "To": "+17035550122",
+                            "From": "+16125551212",
+                            "Direction": "Inbound",
+                            "StartTimeInMilliseconds": "1697040000000",
+                            "Status": "Connected"
+                        }
+                    ]
+                }
+            }
+            """;
+
+    private final static String HANGUP = """
+            {
+                "SchemaVersion": "1.0",
+                "Sequence": 5,
+                "InvocationEventType": "HANGUP",
+                "ActionData": null,
+                "CallDetails": {
+                    "TransactionId": "7a4c0f2e-6d3b-4f5e-9a1c-2b8d7e6f5a41",
+                    "TransactionAttributes": null,
+                    "Participants": [
+                        {
+                            "CallId": "be23f6a9-66f0-4d55-b6d9-b9e614a729ac",
+                            "ParticipantTag": "LEG-A",
+                            "Status": "Disconnected"
+                        }
+                    ]
+                }
+            }
+            """;
+
+    @Test
+    public void streamedEventMatchesJackson() throws IOException {
+        final var json = bytes(ACTION_SUCCESSFUL);
+        final var streamed = reader.read(json);
+
+        assertEquals(mapper.readValue(json, SMARequest.class), streamed);
+
+        final var cd = streamed.getCallDetails();
+        assertEquals(SMARequest.SMAEventType.ACTION_SUCCESSFUL, streamed.getInvocationEventType());
+        assertEquals(2, streamed.getSequence());
+        assertEquals(3, cd.getTransactionAttributes().get("count"));
+        final var participant = cd.getParticipants().get(0);
+        assertEquals(ParticipantTag.LEG_A, participant.getParticipantTag());
+        assertEquals(Instant.ofEpochMilli(1697040000000L), participant.getStartTime());
+    }
+
+    @Test
+    public void actionDataIsDecodedWhenAskedFor() throws IOException {
+        final var streamed = reader.read(new ByteArrayInputStream(bytes(ACTION_SUCCESSFUL)));
+
+        // Type is known without binding the Action Data
+        assertEquals(ResponseActionType.PlayAudioAndGetDigits, streamed.getActionDataType());
+
+        final var actionData = assertInstanceOf(ResponsePlayAudioAndGetDigits.class, streamed.getActionData());
+        assertEquals(CALL_ID, actionData.getParameters().getCallId());
+        assertEquals("main-menu-en-US.wav", actionData.getParameters().getAudioSource().getKey());
+        assertEquals("1", actionData.getReceivedDigits());
+        assertSame(actionData, streamed.getActionData());
+    }
+
+    @Test
+    public void actionDataCanBeReplaced() throws IOException {
+        final var streamed = reader.read(bytes(ACTION_SUCCESSFUL));
+        final var hangup = ResponseHangup.builder().build();
+
+        streamed.setActionData(hangup);
+
+        assertSame(hangup, streamed.getActionData());
+        assertEquals(ResponseActionType.Hangup, streamed.getActionDataType());
+    }
+
+    @Test
+    public void nullsMatchJackson() throws IOException {
+        final var json = bytes(HANGUP);
+        final var streamed = reader.read(json);
+
+        assertEquals(mapper.readValue(json, SMARequest.class), streamed);
+        assertNull(streamed.getActionDataType());
+        assertNull(streamed.getActionData());
+        assertNull(streamed.getCallDetails().getTransactionAttributes());
+    }
+
+    @Test
+    public void fallsBackToJackson() throws IOException {
+        // Unknown enum values stop the stream, Jackson is then left to decide with the mapper's settings
+        final var lenient = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .configure(DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_AS_NULL, true);
+        final var json = bytes(ACTION_SUCCESSFUL.replace("\"Connected\"", "\"OnHold\""));
+
+        final var read = new SMARequestReader(lenient).read(json);
+
+        assertEquals(lenient.readValue(json, SMARequest.class), read);
+        assertNull(read.getCallDetails().getParticipants().get(0).getStatus());
+        assertEquals(CALL_ID, ((ResponsePlayAudioAndGetDigits) read.getActionData()).getParameters().getCallId());
+    }
+
+    @Test
+    public void unknownActionDataTypeFailsLikeJackson() {
+        final var json = bytes(ACTION_SUCCESSFUL.replace("\"PlayAudioAndGetDigits\"", "\"SomethingNew\""));
+
+        assertThrows(IOException.class, () -> mapper.readValue(json, SMARequest.class));
+        assertThrows(IOException.class, () -> reader.read(json));
+    }
+
+    @Test
+    public void malformedEventFails() {
+        final var json = bytes(ACTION_SUCCESSFUL.substring(0, ACTION_SUCCESSFUL.length() / 2));
+
+        assertThrows(IOException.class, () -> reader.read(json));
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,122 @@
+package cloud.cleo.chimesma.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Responses written in one pass must be byte for byte what Jackson writes for the whole SMAResponse.
+ *
+ * @author sjensen
+ */
+public class SMAResponseWriterTest {
+
+    private final static ObjectMapper mapper = new ObjectMapper();
+
+    private final static SMAResponseWriter writer = new SMAResponseWriter(mapper);
+
+    private final static String CALL_ID = "be23f6a9-66f0-4d55-b6d9-b9e614a729ac";
+
+    @Test
+    public void actionsAndAttributesMatchJackson() throws IOException {
+        final var attrs = new LinkedHashMap<String, Object>();
+        attrs.put("locale", "en-US");
+        attrs.put("count", 3);
+        attrs.put("flag", true);
+        attrs.put("nested", Map.of("a", List.of(1, 2)));
+        attrs.put("missing", null);
+        attrs.put("quoted", "say \"hi\"\n");
+
+        assertWritesLikeJackson(SMAResponse.builder()
+                .withActions(List.of(speak("Hello"), playAudio(), hangup()))
+                .withTransactionAttributes(attrs)
+                .build());
+    }
+
+    @Test
+    public void noAttributesMatchesJackson() throws IOException {
+        assertWritesLikeJackson(SMAResponse.builder().withActions(List.of(hangup())).build());
+        assertWritesLikeJackson(SMAResponse.builder().withTransactionAttributes(Map.of()).build());
+    }
+
+    @Test
+    public void nullActionsMatchJackson() throws IOException {
+        assertWritesLikeJackson(SMAResponse.builder().withActions(null).build());
+        assertWritesLikeJackson(SMAResponse.builder().withActions(new ArrayList<>(Arrays.asList(hangup(), null))).build());
+    }
+
+    @Test
+    public void teeGetsWhatWasWritten() throws IOException {
+        final var res = SMAResponse.builder()
+                .withActions(List.of(speak("Unicode ☎ text")))
+                .withTransactionAttributes(Map.of("key", "value"))
+                .build();
+        final var out = new ByteArrayOutputStream();
+        final var teed = new String[1];
+
+        writer.write(res, out, json -> teed[0] = json);
+
+        assertEquals(out.toString(StandardCharsets.UTF_8), teed[0]);
+        assertEquals(mapper.writeValueAsString(res), teed[0]);
+    }
+
+    @Test
+    public void outputStreamIsClosedLikeWriteValue() throws IOException {
+        final var closed = new boolean[1];
+        final var out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        writer.write(SMAResponse.builder().build(), out);
+
+        // Jackson's default AUTO_CLOSE_TARGET, the same as writeValue
+        assertTrue(closed[0]);
+    }
+
+    private static void assertWritesLikeJackson(SMAResponse res) throws IOException {
+        final var out = new ByteArrayOutputStream();
+        writer.write(res, out);
+        assertEquals(mapper.writeValueAsString(res), out.toString(StandardCharsets.UTF_8));
+    }
+
+    static ResponseSpeak speak(String text) {
+        return ResponseSpeak.builder()
+                .withParameters(ResponseSpeak.Parameters.builder()
+                        .withCallId(CALL_ID)
+                        .withText(text)
+                        .withEngine(ResponseSpeak.Engine.neural)
+                        .withLanguageCode("en-US")
+                        .withVoiceId(ResponseSpeak.VoiceId.Joanna)
+                        .build())
+                .build();
+    }
+
+    static ResponsePlayAudio playAudio() {
+        return ResponsePlayAudio.builder()
+                .withParameters(ResponsePlayAudio.Parameters.builder()
+                        .withCallId(CALL_ID)
+                        .withAudioSource(ResponsePlayAudio.AudioSource.builder()
+                                .withBucketName("prompt-bucket")
+                                .withKey("main-menu-en-US.wav")
+                                .build())
+                        .build())
+                .build();
+    }
+
+    static ResponseHangup hangup() {
+        return ResponseHangup.builder()
+                .withParameters(ResponseHangup.Parameters.builder().withCallId(CALL_ID).withSipResponseCode(0).build())
+                .build();
+    }
+}
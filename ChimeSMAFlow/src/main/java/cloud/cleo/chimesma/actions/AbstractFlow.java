@@ -14,20 +14,22 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.stream.Collectors;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.crac.Core;
 
 /**
  *
@@ -40,55 +42,94 @@ public abstract class AbstractFlow implements RequestStreamHandler {
 
     private final static ObjectMapper mapper = new ObjectMapper();
 
-    // The first action in the call start
-    private static Action startAction;
+    private final static SMARequestReader reader = new SMARequestReader(mapper);
 
-    // Default Error Handler when a Action doesn't specify one
-    private static Action errorAction;
+    private final static SMAResponseWriter writer = new SMAResponseWriter(mapper);
 
-    // Map of action Ids
-    private final static Map<Integer, Action> actions = new HashMap<>();
+    // Compact form of the Transaction Attributes sent to SMA
+    private final static TransactionAttributeCodec codec = new TransactionAttributeCodec(mapper);
 
-    private final static Set<Action> actSet = new HashSet<>();
+    // In memory state for calls this container has seen
+    private final static CallStateCache callStates = new CallStateCache(
+            envInt("CALL_STATE_CACHE_SIZE", 1024), Duration.ofMinutes(envInt("CALL_STATE_TTL_MINUTES", 60)));
 
-    protected final static Map<Locale, ResponseSpeak.VoiceId> voice_map = new HashMap<>();
+    // The Flow compiled once (start Action, error Action, voices and static chains), only ever replaced as a whole
+    private static volatile FlowGraph graph;
 
-    private static volatile int idCounter = 1;
+    // Actions indexed by their ID (slot 0 is never used). Slots are written under the class lock and the array is only
+    // copied when it has to grow, writing the field back after every change is what makes the slot visible to readers
+    private static volatile Action[] actions = new Action[64];
+
+    // Last ID handed out, guarded by the class lock
+    private static int idCounter = 0;
+
+    // ID's of released Actions to hand out again before new ones, guarded by the class lock
+    private final static ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+
+    // CRaC only holds Resources weakly
+    private static FlowPrimer primer;
+
+    // Transaction and call ID of the synthetic events used for priming
+    private final static String PRIMING_ID = "00000000-0000-0000-0000-000000000000";
 
     public final static String CURRENT_ACTION_ID = "CurrentActionId";
     public final static String CURRENT_ACTION_ID_LIST = "CurrentActionIdList";
 
+    // Version of the stored state the last invocation saved, so a container knows when its copy is stale
+    final static String STORED_STATE_VERSION = "StoredStateVersion";
+
     static {
         // AWS could extend inout objects so don't fail when new properties have been added
         mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     }
 
     protected AbstractFlow() {
-        if (startAction == null) {
-            log.debug("Starting to Build Static Flow");
-            startAction = getInitialAction();
-            log.debug("Initial Action is " + startAction.getDebugSummary());
+        if (graph == null) {
+            // Hosts may create the Flow from many threads, only one gets to build it
+            synchronized (AbstractFlow.class) {
+                if (graph == null) {
+                    graph = compileFlow();
+                    // Warm everything up before a SnapStart snapshot
+                    primer = new FlowPrimer(this);
+                    Core.getGlobalContext().register(primer);
+                }
+            }
         }
+    }
 
+    /**
+     * Compile the Flow again after it built new Actions, new calls start on the new initial Action. Calls in progress
+     * carry on with the Actions they were on, those stay registered. The call state store is carried over as is.
+     */
+    protected final void recompileFlow() {
+        synchronized (AbstractFlow.class) {
+            graph = compileFlow();
+        }
+    }
+
+    private FlowGraph compileFlow() {
+        log.debug("Starting to Build Static Flow");
+        final var startAction = getInitialAction();
+        log.debug("Initial Action is {}", startAction::getDebugSummary);
+
+        var errorAction = getErrorAction();
         if (errorAction == null) {
-            errorAction = getErrorAction();
-            if (errorAction == null) {
-                // If the Flow didn't provide an action, then use a hangup
-                errorAction = HangupAction.builder().withDescription("System Generated Error Action").build();
-            }
-            log.debug("Error Action is " + errorAction.getDebugSummary());
+            // If the Flow didn't provide an action, then use a hangup
+            errorAction = HangupAction.builder().withDescription("System Generated Error Action").build();
         }
+        log.debug("Error Action is {}", errorAction::getDebugSummary);
 
+        final var voiceMap = new HashMap<Locale, ResponseSpeak.VoiceId>();
         final var vmapStr = System.getenv("LANGUAGE_VOICE_MAP");
-        if (vmapStr != null && voice_map.isEmpty()) {
-            log.debug("Processing Locale to VoiceId mapping from ENV " + vmapStr);
+        if (vmapStr != null) {
+            log.debug("Processing Locale to VoiceId mapping from ENV {}", vmapStr);
             try {
                 List<LocaleVoiceId> list = mapper.readerForListOf(LocaleVoiceId.class).readValue(vmapStr);
                 for (var map : list) {
                     if (map.locale != null && map.voiceId != null) {
                         try {
-                            log.debug("Adding Locale [" + map.locale + "] with VoiceId [" + map.voiceId + "]");
-                            voice_map.put(Locale.forLanguageTag(map.locale), ResponseSpeak.VoiceId.valueOf(map.voiceId));
+                            log.debug("Adding Locale [{}] with VoiceId [{}]", map.locale, map.voiceId);
+                            voiceMap.put(Locale.forLanguageTag(map.locale), ResponseSpeak.VoiceId.valueOf(map.voiceId));
                         } catch (Exception e) {
                             log.error("Error processing Locale", e);
                         }
@@ -102,9 +143,165 @@ public abstract class AbstractFlow implements RequestStreamHandler {
         final var vmap = getLanguageToVoiceIdMap();
         if (vmap != null) {
             log.debug("Flow has provided Lang to VoiceId mapping, adding...");
-            voice_map.putAll(vmap);
+            voiceMap.putAll(vmap);
+        }
+
+        // The store is built once, a recompiled Flow keeps the one it has
+        final var store = graph != null ? graph.getCallStateStore() : getCallStateStore();
+        log.debug("Call state is stored with {}", () -> store.getClass().getSimpleName());
+
+        final var registered = registeredActions();
+        final var compiled = FlowGraph.compile(startAction, errorAction, registered, voiceMap, store);
+        log.debug("Flow compiled with {} Actions", registered::size);
+        return compiled;
+    }
+
+    /**
+     * Run the Flow's hot paths with a synthetic call so a snapshot has them all loaded. Every Action with a static
+     * response is rendered in each Locale from an ACTION_SUCCESSFUL event, written out, and read back as Action Data.
+     * Nothing leaves the container, the handlers and call state store are never called and the responses are thrown
+     * away. Actions with functions are skipped since those run the Flow's own code.
+     *
+     * @throws IOException
+     */
+    final void primeFlow() throws IOException {
+        final var start = System.nanoTime();
+        final var tags = new ArrayList<String>();
+        graph.getVoiceMap().keySet().forEach(l -> tags.add(l.toLanguageTag()));
+        if (tags.isEmpty()) {
+            // Just the call's default Locale
+            tags.add(null);
+        }
+
+        int count = 0;
+        for (final var action : registeredActions()) {
+            if (!action.isTemplated()) {
+                continue;
+            }
+            for (final var tag : tags) {
+                final var attrs = new HashMap<String, Object>();
+                attrs.put(CURRENT_ACTION_ID, action.getId().toString());
+                if (tag != null) {
+                    attrs.put("locale", tag);
+                }
+                final var response = primeAction(primingEvent(attrs, null));
+                // SMA sends the Action back as the Action Data of the next event
+                reader.read(primingEvent(attrs, response)).getActionData();
+                count++;
+            }
+        }
+
+        // Responses the engine builds on its own
+        writer.write(hangupLegA(), OutputStream.nullOutputStream());
+        writer.write(emptyResponse(), OutputStream.nullOutputStream());
+        callStates.remove(PRIMING_ID);
+
+        log.info("Primed {} Action responses in {} ms", count, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Called before a SnapStart snapshot once the Flow has been primed. Override to warm up your own code, like making
+     * a request with each AWS client the Flow uses.
+     *
+     * @throws Exception
+     */
+    protected void prime() throws Exception {
+
+    }
+
+    private ResponseAction primeAction(byte[] json) throws IOException {
+        final var event = reader.read(json);
+        final var cd = event.getCallDetails();
+        cd.setTransactionAttributes(codec.decode(cd.getTransactionAttributes()));
+        try (var ctx = InvocationContext.prime(event)) {
+            final var action = getCurrentAction(event);
+            log.debug("Priming {}", action::summary);
+            final var response = action.render();
+            final var res = SMAResponse.builder().withTransactionAttributes(ctx.getTransactionAttributes())
+                    .withActions(List.of(response)).build();
+            res.setTransactionAttributes(codec.encode(res.getTransactionAttributes()));
+            writer.write(res, OutputStream.nullOutputStream());
+            return response;
+        }
+    }
+
+    private static byte[] primingEvent(Map<String, Object> attrs, ResponseAction actionData) throws IOException {
+        final var event = mapper.createObjectNode()
+                .put("SchemaVersion", "1.0")
+                .put("Sequence", 1)
+                .put("InvocationEventType", ACTION_SUCCESSFUL.toString());
+        if (actionData != null) {
+            event.set("ActionData", mapper.valueToTree(actionData));
+        }
+        final var cd = event.putObject("CallDetails")
+                .put("TransactionId", PRIMING_ID)
+                .put("AwsAccountId", "000000000000")
+                .put("AwsRegion", "us-east-1")
+                .put("SipMediaApplicationId", PRIMING_ID);
+        cd.set("TransactionAttributes", mapper.valueToTree(codec.encode(attrs)));
+        cd.putArray("Participants").addObject()
+                .put("CallId", PRIMING_ID)
+                .put("ParticipantTag", "LEG-A")
+                .put("To", "+10000000000")
+                .put("From", "+10000000000")
+                .put("Direction", "Inbound")
+                .put("StartTimeInMilliseconds", "0")
+                .put("Status", "Connected");
+        return mapper.writeValueAsBytes(event);
+    }
+
+    /**
+     * Pre-render an Action response with the same writer used for responses.
+     *
+     * @param response
+     * @param callId
+     * @return template or null when it can't be templated
+     * @throws IOException
+     */
+    static ResponseTemplate responseTemplate(ResponseAction response, String callId) throws IOException {
+        return writer.template(response, callId);
+    }
+
+    /**
+     * What is held in memory for a call, see {@link Action#getCallState()}.
+     *
+     * @param transactionId
+     * @return the call
+     */
+    static CallStateCache.Call getCall(String transactionId) {
+        return callStates.get(transactionId);
+    }
+
+    /**
+     * The store for the Flow, see {@link Action#getStoredState()}.
+     *
+     * @return the store
+     */
+    static CallStateStore getStateStore() {
+        return graph.getCallStateStore();
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        final var value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.error("{} is not a number, using {}", name, defaultValue);
+            return defaultValue;
         }
+    }
 
+    /**
+     * Voice to use for each Locale when Speak Actions don't set one.
+     *
+     * @return immutable map of Locale to VoiceId
+     */
+    protected static Map<Locale, ResponseSpeak.VoiceId> getVoiceMap() {
+        final var g = graph;
+        return g != null ? g.getVoiceMap() : Map.of();
     }
 
     /**
@@ -122,17 +319,68 @@ public abstract class AbstractFlow implements RequestStreamHandler {
         private String voiceId;
     }
 
+    /**
+     * Every Action object calls this once when constructed, so each gets the next ID in sequence (or the ID of an
+     * Action that was released).
+     *
+     * @param action
+     * @return the ID of the Action
+     */
     protected synchronized final static Integer registerAction(Action action) {
-        if (!actSet.contains(action)) {
-            actSet.add(action);
-            log.debug("Registering ID  " + idCounter + " as " + action.getClass().getSimpleName());
-            actions.put(idCounter, action);
-            return idCounter++;
-        } else {
-            return actions.entrySet().stream()
-                    .filter((t) -> t.getValue().equals(action))
-                    .map(t -> t.getKey()).findAny().orElse(0);
+        final int id = freeIds.isEmpty() ? ++idCounter : freeIds.poll();
+        var arr = actions;
+        if (id >= arr.length) {
+            arr = Arrays.copyOf(arr, arr.length * 2);
+        }
+        arr[id] = action;
+        // Volatile write so readers see the filled slot, whether or not the array was copied
+        actions = arr;
+        log.debug("Registering ID  {} as {}", id, action.getClass().getSimpleName());
+        return id;
+    }
+
+    /**
+     * Release Actions that will never be used again so their ID's can be handed out again, like those of a Flow
+     * definition that was replaced. Recompile the Flow afterwards so no chain refers to them.
+     *
+     * @param released
+     */
+    synchronized static void releaseActions(Collection<Action> released) {
+        final var arr = actions;
+        for (final var action : released) {
+            final int id = action.getId();
+            if (id < arr.length && arr[id] == action) {
+                arr[id] = null;
+                freeIds.add(id);
+            }
+        }
+        actions = arr;
+        log.debug("Released {} Actions", released::size);
+    }
+
+    /**
+     * Lookup a registered Action.
+     *
+     * @param id
+     * @return the Action or null if there is no Action with that ID
+     */
+    static Action getAction(int id) {
+        final var arr = actions;
+        return id > 0 && id < arr.length ? arr[id] : null;
+    }
+
+    /**
+     * @return all the Actions registered (and not released) in ID order
+     */
+    private static List<Action> registeredActions() {
+        final var arr = actions;
+        final var list = new ArrayList<Action>(arr.length);
+        for (int i = 1; i < arr.length; i++) {
+            if (arr[i] != null) {
+                list.add(arr[i]);
+            }
         }
+        return list;
     }
 
     protected abstract Action getInitialAction();
@@ -147,77 +395,140 @@ public abstract class AbstractFlow implements RequestStreamHandler {
         return null;
     }
 
-    private LinkedList<Action> getActions(Action initialAction, SMARequest event) throws CloneNotSupportedException {
-        var list = new LinkedList<Action>();
-
-        // Add the first action always
-        var action = initialAction.clone(event);
-        list.add(action);
-        final var attrs = action.getTransactionAttributes();
-        log.info("Adding action " + action.getDebugSummary());
-
-        int counter = 1;  // Can only send max of 10 actions at a time
-        while (action.isChainable() && action.getNextRoutingAction() != null && counter < 10) {
-            // We have a next action
-            final var nextAction = action.getNextRoutingAction().clone(event);
-            list.add(nextAction);
-            attrs.putAll(nextAction.getTransactionAttributes());
-            log.info("Chaining action " + nextAction.getDebugSummary());
-            action = nextAction;
-            counter++;
+    /**
+     * Where Actions keep call state that doesn't fit in the Transaction Attributes. Uses a DynamoDB table when
+     * CALL_STATE_TABLE_NAME is set, otherwise state is only kept in memory with the rest of the call's state and is
+     * dropped when the call ends. Override to provide your own, like {@link InMemoryCallStateStore} for tests.
+     *
+     * @return the store, called once when the Flow is built
+     */
+    protected CallStateStore getCallStateStore() {
+        final var tableName = System.getenv("CALL_STATE_TABLE_NAME");
+        return tableName != null && !tableName.isBlank() ? new DynamoDbCallStateStore(tableName) : new LocalCallStateStore();
+    }
+
+    private List<Action> getActions(Action initialAction) {
+        final List<Action> list;
+        final String ids;
+
+        final var chain = graph.getChain(initialAction);
+        if (chain != null) {
+            // Static chain, computed when the Flow was built
+            list = chain.actions();
+            ids = chain.ids();
+        } else {
+            list = new ArrayList<>(FlowGraph.MAX_ACTIONS);
+
+            // Add the first action always
+            var action = initialAction;
+            list.add(action);
+
+            // Can only send max of 10 actions at a time
+            while (action.isChainable() && list.size() < FlowGraph.MAX_ACTIONS) {
+                final var nextAction = action.getNextRoutingAction();
+                if (nextAction == null) {
+                    break;
+                }
+                list.add(nextAction);
+                action = nextAction;
+            }
+            ids = list.stream().map(a -> a.getId().toString()).collect(Collectors.joining(","));
+        }
+
+        for (final var action : list) {
+            log.info("{} action {}", () -> action == initialAction ? "Adding" : "Chaining", action::summary);
+            action.onRender();
         }
 
+        final var attrs = initialAction.getTransactionAttributes();
+
+        // The last Action in the response is the current Action
+        attrs.put(CURRENT_ACTION_ID, list.getLast().getId().toString());
+
         // When we chain a bunch of actions, we'll need to also know the list of
         // ID's in order in case one errors in the middle of the list for example
-        attrs.put(CURRENT_ACTION_ID_LIST,
-                list.stream().map(a -> a.getId().toString()).collect(Collectors.joining(",")));
+        attrs.put(CURRENT_ACTION_ID_LIST, ids);
 
         // Always push out the current locale as it can change per action
         attrs.put("locale", list.getLast().getLocale().toLanguageTag());
 
-        // The last Action will contain the summation of all the attrs
-        list.getLast().setTransactionAttributes(attrs);
         return list;
     }
 
-    private Action getCurrentAction(SMARequest event) throws CloneNotSupportedException {
+    private Action getCurrentAction(SMARequest event) {
         final var attrs = event.getCallDetails().getTransactionAttributes();
 
+        Action action = null;
         String actionIdStr = null;
         switch (event.getInvocationEventType()) {
             case DIGITS_RECEIVED:
                 actionIdStr = (String) attrs.get(RECEIVE_DIGITS_ID);
                 break;
             case ACTION_FAILED:
-                List<Integer> list = Arrays.stream(attrs.get(CURRENT_ACTION_ID_LIST).toString().split(","))
-                        .map(Integer::parseInt)
-                        .collect(Collectors.toList());
-                final var adType = event.getActionData().getType();
-                if (list.size() > 1) {
-                    // Traverse the list until we match the correct type
-                    for (var id : list) {
-                        final var a = actions.get(id);
-                        if (adType.equals(a.getActionType())) {
-                            actionIdStr = a.getId().toString();
-                            break;
-                        }
-                    }
-                    if (actionIdStr != null) {
-                        break;
-                    }
+                action = getFailedAction(attrs.get(CURRENT_ACTION_ID_LIST), event.getActionDataType());
+                if (action != null) {
+                    break;
                 }
             default:
                 actionIdStr = (String) attrs.get(CURRENT_ACTION_ID);
         }
 
-        final var actionId = Integer.valueOf(actionIdStr);
-        final var action = actions.get(actionId).clone(event);
-        log.debug("Current Action is " + action.getDebugSummary() + " with ID " + action.getId());
+        if (action == null) {
+            action = getAction(Integer.parseInt(actionIdStr));
+        }
+        attrs.put(CURRENT_ACTION_ID, action.getId().toString());
+        log.debug("Current Action is {} with ID {}", action::summary, action::getId);
         return action;
     }
 
     /**
-     * Java 21 doesn't want to deserialize like 17 did, so we use our own mapper to handle things.
+     * When several Actions were sent in one response, find the one that failed by its type.
+     *
+     * @param idList the comma separated Action ID's sent in the last response
+     * @param type the Action type in the failure Action Data
+     * @return the failed Action or null when the current Action should be used
+     */
+    private static Action getFailedAction(Object idList, ResponseActionType type) {
+        if (idList == null || type == null) {
+            return null;
+        }
+        final var ids = idList.toString();
+        final int comma = ids.indexOf(',');
+        if (comma < 0) {
+            // Only one Action was sent, so that's the current Action
+            return null;
+        }
+
+        final var head = getAction(Integer.parseInt(ids, 0, comma, 10));
+        final var chain = head != null ? graph.getChain(head) : null;
+        if (chain != null) {
+            // Compiled chain, the failing Action by type was computed when the Flow was built
+            return chain.failedAction(type);
+        }
+
+        // Chain was determined at runtime, walk the ID's until we match the type
+        Action played = null;
+        int start = 0;
+        while (start < ids.length()) {
+            int end = ids.indexOf(',', start);
+            if (end < 0) {
+                end = ids.length();
+            }
+            final var a = getAction(Integer.parseInt(ids, start, end, 10));
+            if (a != null && type.equals(a.getActionType())) {
+                return a;
+            }
+            if (played == null && a != null && type.equals(SpeechPrompts.playedAs(a.getActionType()))) {
+                // Speak Actions may have been sent as PlayAudio, see SpeechPrompts
+                played = a;
+            }
+            start = end + 1;
+        }
+        return played;
+    }
+
+    /**
+     * Java 21 doesn't want to deserialize like 17 did, so we decode with our own streaming reader and mapper.
      *
      * @param in
      * @param out
@@ -226,7 +537,13 @@ public abstract class AbstractFlow implements RequestStreamHandler {
      */
     @Override
     public void handleRequest(InputStream in, OutputStream out, Context cntxt) throws IOException {
-        mapper.writeValue(out, handleRequest(mapper.readValue(in, SMARequest.class), cntxt));
+        final var res = handleRequest(reader.read(in), cntxt);
+        if (log.isDebugEnabled()) {
+            // Log exactly what was sent back to SMA
+            writer.write(res, out, json -> log.debug(json));
+        } else {
+            writer.write(res, out);
+        }
     }
 
     /**
@@ -237,16 +554,22 @@ public abstract class AbstractFlow implements RequestStreamHandler {
      * @return
      */
     public final SMAResponse handleRequest(SMARequest event, Context cntxt) {
-        try {
+        final var cd = event.getCallDetails();
+        if (cd != null) {
+            // Everything from here on only sees the decoded attributes
+            cd.setTransactionAttributes(codec.decode(cd.getTransactionAttributes()));
+        }
+        try (var ctx = InvocationContext.open(event)) {
             log.debug(event);
             SMAResponse res;
+            boolean callEnded = false;
             switch (event.getInvocationEventType()) {
                 case NEW_INBOUND_CALL:
                     // Start with the initial action
                     log.debug("New Inbound Call, starting flow");
-                    var actionList = getActions(startAction, event);
+                    var actionList = getActions(graph.getStartAction());
                     res = SMAResponse.builder().withTransactionAttributes(actionList.getLast().getTransactionAttributes())
-                            .withActions(actionList.stream().map(a -> a.getResponse()).collect(Collectors.toList())).build();
+                            .withActions(actionList.stream().map(Action::render).collect(Collectors.toList())).build();
                     try {
                         newCallHandler(actionList.getLast());
                     } catch (Exception e) {
@@ -266,13 +589,13 @@ public abstract class AbstractFlow implements RequestStreamHandler {
                     // We need to check if we were weren't the last action, because if we weren't then we need to get that action
                     // And set as current
                     final var dr_nra = action.getNextRoutingAction();
-                    final var dr_List = getActions(dr_nra, event);
+                    final var dr_List = getActions(dr_nra);
                     if (!action.getId().toString().equals(dr_actionIdStr)) {
                         // We weren't the current action ID, so reset to that
                         final var attrs_new = dr_List.getLast().getTransactionAttributes();
                         attrs_new.put(CURRENT_ACTION_ID, dr_actionIdStr);
                         res = SMAResponse.builder().withTransactionAttributes(attrs_new)
-                                .withActions(dr_List.stream().map(a -> a.getResponse()).collect(Collectors.toList())).build();
+                                .withActions(dr_List.stream().map(Action::render).collect(Collectors.toList())).build();
                     } else {
                         res = defaultResponse(action, event);
                     }
@@ -288,35 +611,42 @@ public abstract class AbstractFlow implements RequestStreamHandler {
                         res = SMAResponse.builder().withTransactionAttributes(attrs).build();
                         break;
                     }
-                    log.error("Error for " + action.getDebugSummary());
+                    log.error("Error for {}", action::summary);
                     if (event.getActionData() instanceof ErrorTypeMessage errorTypeMessage) {
-                        log.error("ErrorType = [" + errorTypeMessage.getErrorType() + "]");
-                        log.error("ErrorMessage = [" + errorTypeMessage.getErrorMessage() + "]");
+                        log.error("ErrorType = [{}]", errorTypeMessage.getErrorType());
+                        log.error("ErrorMessage = [{}]", errorTypeMessage.getErrorMessage());
                     }
                     if (event.getActionData() instanceof ErrorMessage errorMessage) {
-                        log.error("Error = [" + errorMessage.getError() + "]");
+                        log.error("Error = [{}]", errorMessage.getError());
+                    }
+                    // A prompt rendered from a Speak Action may be gone from the bucket
+                    if (event.getActionData() instanceof ResponsePlayAudio playAudio && playAudio.getParameters() != null) {
+                        SpeechPrompts.playFailed(playAudio.getParameters().getAudioSource());
+                    } else if (event.getActionData() instanceof ResponsePlayAudioAndGetDigits playAudio && playAudio.getParameters() != null) {
+                        SpeechPrompts.playFailed(playAudio.getParameters().getAudioSource());
+                        SpeechPrompts.playFailed(playAudio.getParameters().getFailureAudioSource());
                     }
                     if (action.getErrorAction() != null) {
-                        actionList = getActions(action.getErrorAction(), event);
+                        actionList = getActions(action.getErrorAction());
                     } else {
                         // No error defined on the action itself, use flow error handler
-                        actionList = getActions(errorAction, event);
+                        actionList = getActions(graph.getErrorAction());
                     }
                     res = SMAResponse.builder().withTransactionAttributes(actionList.getLast().getTransactionAttributes())
-                            .withActions(actionList.stream().map(a -> a.getResponse()).collect(Collectors.toList())).build();
+                            .withActions(actionList.stream().map(Action::render).collect(Collectors.toList())).build();
                     break;
                 case HANGUP:
                     final var disconnectedBy = event.getCallDetails().getTransactionAttributes().getOrDefault("Disconnect", "Application");
-                    log.debug("Call Was disconnected by [" + disconnectedBy + "], sending empty response");
+                    log.debug("Call Was disconnected by [{}], sending empty response", disconnectedBy);
                     action = getCurrentAction(event);
                     if (action instanceof CallAndBridgeAction callAndBridgeAction) {
                         // Because Call Bridge has 2 call legs in play, delegate respone to the Action since there
                         // various way to handle things, but the default being once connected a hangup on one leg should drop the other
                         final var nextAction = callAndBridgeAction.getHangupAction();
                         if (nextAction != null) {
-                            actionList = getActions(nextAction, event);
+                            actionList = getActions(nextAction);
                             res = SMAResponse.builder().withTransactionAttributes(actionList.getLast().getTransactionAttributes())
-                                    .withActions(actionList.stream().map(a -> a.getResponse()).collect(Collectors.toList())).build();
+                                    .withActions(actionList.stream().map(Action::render).collect(Collectors.toList())).build();
                         } else {
                             // No next action after hangup
                             res = emptyResponse();
@@ -327,6 +657,7 @@ public abstract class AbstractFlow implements RequestStreamHandler {
                         } catch (Exception e) {
                             log.error("Exception in Hangup Handler", e);
                         }
+                        callEnded = true;
                         res = emptyResponse();
                     }
                     break;
@@ -334,7 +665,7 @@ public abstract class AbstractFlow implements RequestStreamHandler {
                     action = getCurrentAction(event);
                     final var newAction = callUpdateRequest(action, ((ActionDataCallUpdateRequest) event.getActionData()).getParameters().getArguments());
                     res = SMAResponse.builder().withTransactionAttributes(newAction.getTransactionAttributes())
-                            .withActions(List.of(newAction.getResponse())).build();
+                            .withActions(List.of(newAction.render())).build();
                     break;
                 case RINGING:
                     log.info("Outboud Call is RINGING (sending empty response)");
@@ -342,15 +673,29 @@ public abstract class AbstractFlow implements RequestStreamHandler {
                     break;
                 case INVALID_LAMBDA_RESPONSE:
                     log.error(event.getInvocationEventType());
-                    log.error("ErrorType = [" + event.getErrorType() + "]");
-                    log.error("ErrorMessage = [" + event.getErrorMessage() + "]");
+                    log.error("ErrorType = [{}]", event.getErrorType());
+                    log.error("ErrorMessage = [{}]", event.getErrorMessage());
                 default:
-                    log.debug("Invocation type is unhandled, sending empty response for " + event.getInvocationEventType());
+                    log.debug("Invocation type is unhandled, sending empty response for {}", event.getInvocationEventType());
                     res = emptyResponse();
             }
 
-            //log.debug(res);
-            log.debug(mapper.valueToTree(res).toString());
+            final var store = graph.getCallStateStore();
+            if (ctx.isStoredStateUsed()) {
+                // Written through when changed, the next invocation of the call may land on any container
+                final var version = ctx.saveStoredState(store);
+                if (res.getTransactionAttributes() == null) {
+                    res.setTransactionAttributes(ctx.getTransactionAttributes());
+                }
+                res.getTransactionAttributes().put(STORED_STATE_VERSION, Long.toString(version));
+            }
+            if (callEnded) {
+                // Call is over, no need to hold its state any longer
+                store.callEnded(ctx.getTransactionId());
+                callStates.remove(ctx.getTransactionId());
+            }
+
+            res.setTransactionAttributes(codec.encode(res.getTransactionAttributes()));
             return res;
         } catch (RuntimeFailureException e) {
             log.error("In fail over mode, throwing back Exception to Lambda runtime");
@@ -366,17 +711,17 @@ public abstract class AbstractFlow implements RequestStreamHandler {
         return null;
     }
 
-    private SMAResponse defaultResponse(Action action, SMARequest event) throws CloneNotSupportedException {
+    private SMAResponse defaultResponse(Action action, SMARequest event) {
         SMAResponse res;
         if (event.getInvocationEventType().equals(ACTION_SUCCESSFUL) && Disconnected.equals(event.getCallDetails().getParticipants().get(0).getStatus())) {
             // We are just getting a success on the last Action while caller hung up, so we can't go to next action
             log.debug("Call is Disconnected on ACTION_SUCCESSFUL, so empty response");
             res = SMAResponse.builder().build();
         } else if (action.getNextRoutingAction() != null) {
-            final var actionList = getActions(action.getNextRoutingAction(), event);
+            final var actionList = getActions(action.getNextRoutingAction());
             res = SMAResponse.builder().withTransactionAttributes(actionList.getLast().getTransactionAttributes())
-                    .withActions(actionList.stream().map(a -> a.getResponse()).collect(Collectors.toList())).build();
-            log.info("Moving to next action: " + actionList.getFirst().getDebugSummary());
+                    .withActions(actionList.stream().map(Action::render).collect(Collectors.toList())).build();
+            log.info("Moving to next action: {}", actionList.getFirst()::summary);
         } else if (action.getNextRoutingAction() == null && action instanceof CallAndBridgeAction) {
             //  When a call is bridged successfully, there is no action to take, and we don't want to hang up any legs
             log.debug("CallAndBridge no next step, so empty response");
@@ -1,17 +1,17 @@
 package cloud.cleo.chimesma.actions;
 
-import static cloud.cleo.chimesma.actions.AbstractFlow.CURRENT_ACTION_ID;
 import cloud.cleo.chimesma.model.*;
 import static cloud.cleo.chimesma.model.SMARequest.SMAEventType.ACTION_FAILED;
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import lombok.AccessLevel;
-import lombok.Builder;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,13 +22,31 @@ import org.apache.logging.log4j.Logger;
  * @param <A>
  * @param <R> The type that is returned in the ActionData for responses back from SMA
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 @NoArgsConstructor
-public abstract class Action<A extends Action, R extends ResponseAction> implements Cloneable {
+public abstract class Action<A extends Action, R extends ResponseAction> {
 
     protected final static Logger log = LogManager.getLogger(Action.class);
 
+    // Classes that override getNextRoutingAction() and thus route based on the event
+    private final static ClassValue<Boolean> CUSTOM_ROUTING = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return declaringClass(type, "getNextRoutingAction") != Action.class;
+        }
+    };
+
+    // Classes where hasStaticResponse() was written for the getResponse() in use, a sub class that changes
+    // getResponse() without also looking at hasStaticResponse() can't be templated
+    private final static ClassValue<Boolean> TEMPLATE_SAFE = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return declaringClass(type, "getResponse").isAssignableFrom(declaringClass(type, "hasStaticResponse"));
+        }
+    };
 
     // Id used to track unique Java Object Actions
     private final Integer id = AbstractFlow.registerAction(this);
@@ -39,29 +57,98 @@ public abstract class Action<A extends Action, R extends ResponseAction> impleme
      */
     private String description;
 
-    /**
-     * Call ID used to track call Legs
-     */
-    @Setter(AccessLevel.PROTECTED)
-    private String callId;
-
     private Action nextAction;
     private Function<A, Action> nextActionF;
     
     private Action errorAction;
 
-    @Setter(AccessLevel.PROTECTED)
-    private SMARequest event;
-
     // Always maintain a Language
     private Locale locale;
 
-
-    @Builder.Default
-    private Map<String, Object> transactionAttributes = new HashMap<>();
+    // Pre-rendered responses by Locale when the response only changes with the call ID
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final Map<Locale, ResponseTemplate> templates = new ConcurrentHashMap<>();
 
     protected abstract ResponseAction getResponse();
 
+    /**
+     * Call ID used to track call Legs
+     *
+     * @return the Call ID of the call being processed
+     */
+    public String getCallId() {
+        final var ctx = InvocationContext.current();
+        return ctx != null ? ctx.getCallId() : null;
+    }
+
+    /**
+     * The Call Event associated with this Action.
+     *
+     * @return the event being processed or null when not processing an event
+     */
+    public SMARequest getEvent() {
+        final var ctx = InvocationContext.current();
+        return ctx != null ? ctx.getEvent() : null;
+    }
+
+    /**
+     * The Locale set on this Action, otherwise the Locale the call is currently in.
+     *
+     * @return the Locale to use for this Action
+     */
+    public Locale getLocale() {
+        if (locale != null) {
+            return locale;
+        }
+        final var ctx = InvocationContext.current();
+        return ctx != null ? ctx.getLocale() : null;
+    }
+
+    /**
+     * Transaction Attributes for the call being processed. These are shared by all the Actions in the response.
+     *
+     * @return attributes or an empty map when not processing an event
+     */
+    public Map<String, Object> getTransactionAttributes() {
+        final var ctx = InvocationContext.current();
+        return ctx != null ? ctx.getTransactionAttributes() : Map.of();
+    }
+
+    public void setTransactionAttributes(Map<String, Object> transactionAttributes) {
+        final var ctx = InvocationContext.current();
+        if (ctx != null) {
+            ctx.setTransactionAttributes(transactionAttributes);
+        }
+    }
+
+    /**
+     * State for the call being processed that is kept in memory across invocations, for things like parsed objects or
+     * results of lookups that you don't want to repeat on every invocation of the call.
+     *
+     * Invocations for a call can land on any container, so this will be empty whenever the call has not been seen by
+     * this one. Anything needed to continue the call must still be recoverable from the Transaction Attributes.
+     *
+     * @return mutable state for the call or an empty map when not processing an event
+     */
+    public Map<String, Object> getCallState() {
+        final var ctx = InvocationContext.current();
+        return ctx != null ? ctx.getCallState() : Map.of();
+    }
+
+    /**
+     * State for the call being processed that is kept in the Flow's {@link CallStateStore}, for data that is too large
+     * for the Transaction Attributes. Loaded on first use (from memory when this container has the latest copy) and
+     * written back to the store before the invocation returns when it was changed. If another invocation of the call
+     * saved the state in the meantime, the changes are dropped and logged as an error.
+     *
+     * @return mutable state for the call or an empty map when not processing an event
+     */
+    public Map<String, Object> getStoredState() {
+        final var ctx = InvocationContext.current();
+        return ctx != null ? ctx.getStoredState(AbstractFlow.getStateStore()) : Map.of();
+    }
+
     /**
      * The Action Data from SMA Request if the type matches,
      * otherwise null.  When callers get null, they should
@@ -72,7 +159,9 @@ public abstract class Action<A extends Action, R extends ResponseAction> impleme
      * @return
      */
     public final R getActionData() {
-        if (event.getActionData() != null && event.getActionData().getType().equals(getActionType())) {
+        final var event = getEvent();
+        // Check the type first so Action Data meant for another Action is never decoded
+        if (getActionType().equals(event.getActionDataType())) {
             return (R) event.getActionData();
         }
         return null;
@@ -85,6 +174,7 @@ public abstract class Action<A extends Action, R extends ResponseAction> impleme
      * @return error string or empty string if no error or message
      */
     public String getErrorMessage() {
+        final var event = getEvent();
         if ( event.getInvocationEventType().equals(ACTION_FAILED) ) {
            if ( this instanceof ErrorMessage ) {
                return ((ErrorMessage )event.getActionData()).getError();
@@ -103,23 +193,109 @@ public abstract class Action<A extends Action, R extends ResponseAction> impleme
         return true;
     }
 
+    /**
+     * Whether getResponse() only depends on the call ID and Locale, that is this Action has no functions that feed the
+     * response. These Actions are rendered once per Locale and then just have the call ID spliced in. Sub classes
+     * override to opt in.
+     *
+     * @return true when the response can be pre-rendered
+     */
+    protected boolean hasStaticResponse() {
+        return false;
+    }
+
+    /**
+     * Whether a static response will stay the same for the life of the Flow and so can be kept as the template. Sub
+     * classes whose response can change (like Speak turning into PlayAudio) return false while it still may.
+     *
+     * @param response the response just rendered
+     * @return true when the response can be kept
+     */
+    protected boolean isResponseSettled(ResponseAction response) {
+        return true;
+    }
+
+    /**
+     * The response for this Action, from the pre-rendered template when the Action has a static response.
+     *
+     * @return the response to send to SMA
+     */
+    final ResponseAction render() {
+        final var callId = getCallId();
+        if (callId == null || !isTemplated()) {
+            return getResponse();
+        }
+
+        final var locale = getLocale();
+        final var template = templates.get(locale);
+        if (template != null) {
+            return template.bind(callId);
+        }
+
+        // First time for this Locale, render normally and keep the JSON for next time
+        final var response = getResponse();
+        if (!isResponseSettled(response)) {
+            return response;
+        }
+        try {
+            final var created = AbstractFlow.responseTemplate(response, callId);
+            if (created != null) {
+                templates.putIfAbsent(locale, created);
+            }
+        } catch (IOException e) {
+            log.warn("Could not pre-render {}", getClass().getSimpleName(), e);
+        }
+        return response;
+    }
+
+    /**
+     * Whether responses are rendered from templates, which also means getResponse() runs none of the Flow's code.
+     *
+     * @return true when the Action has a static response that can be templated
+     */
+    final boolean isTemplated() {
+        return hasStaticResponse() && TEMPLATE_SAFE.get(getClass());
+    }
+
+    /**
+     * Whether the next Action is fixed when the Flow is built, that is there is no next Action function and the class
+     * doesn't route on its own. These Actions can have their chain compiled once.
+     *
+     * @return true when getNextRoutingAction() does not depend on the event
+     */
+    final boolean hasStaticRouting() {
+        return nextActionF == null && !CUSTOM_ROUTING.get(getClass());
+    }
+
     /**
      * Given a function execute and return the function value if function is not null. Return value if the function
      * throws an exception or is null. Note the value could be null as well.
      *
+     * While processing an event, each function runs at most once for this Action and later calls get the same value.
+     *
      * @param <V>
      * @param function
      * @param value
      * @return
      */
     protected final <V> V getFuncValOrDefault(Function<A, V> function, V value) {
+        if (function != null) {
+            final var ctx = InvocationContext.current();
+            if (ctx != null) {
+                return ctx.functionValue(this, function, () -> applyFunction(function, value));
+            }
+        }
+        return applyFunction(function, value);
+    }
+
+    private <V> V applyFunction(Function<A, V> function, V value) {
         if (function != null) {
             try {
                 return function.apply((A) this);
             } catch ( RuntimeFailureException rfe ) {
                 throw rfe;
             } catch (Exception e) {
-                log.error(getClass().getSimpleName() + " Function Exception",e);
+                log.error("{} Function Exception", getClass().getSimpleName(), e);
             }
         }
         // If no function or function threw exception, return just the value
@@ -136,6 +312,17 @@ public abstract class Action<A extends Action, R extends ResponseAction> impleme
         return getFuncValOrDefault(nextActionF, nextAction);
     }
 
+    /**
+     * The debug summary as logged by the engine. Function values computed only for the summary aren't kept for the
+     * invocation, so a summary logged before the Transaction Attributes change doesn't fix what is rendered later.
+     *
+     * @return summary string targeted for logging
+     */
+    final StringBuilder summary() {
+        final var ctx = InvocationContext.current();
+        return ctx != null ? ctx.summarize(this::getDebugSummary) : getDebugSummary();
+    }
+
     /**
      * Generate a short and concise debug line that is readable in the logs. Sub classes should always call super() on
      * this and add what is relevant.
@@ -150,34 +337,12 @@ public abstract class Action<A extends Action, R extends ResponseAction> impleme
         return sb;
     }
 
-    protected A clone(SMARequest event) throws CloneNotSupportedException {
-        final var clone = (A) super.clone();
-
-        // We should always have a CallId on first participant
-        clone.setCallId(event.getCallDetails().getParticipants().get(0).getCallId());
-
-        // On new calls incoming will be null, so we need to create
-        clone.setTransactionAttributes(event.getCallDetails().getTransactionAttributes() == null ? new HashMap<>()
-                : event.getCallDetails().getTransactionAttributes());
-
-        // Always set our ID
-        clone.setTransactionAttribute(CURRENT_ACTION_ID, getId().toString());
-
-        // Always set our lang (use language tags as that is consistant for in and out)
-        //  Bots take Java form with _ and Speak actions take it with - (but for us, Java Locale object can output both)
-        if ( clone.getLocale() == null ) {
-            // No Locale set on this action, so pull from attrs
-            //log.debug("This Action has no locale set, getting from attrs or default");
-            clone.setLocale(Locale.forLanguageTag(clone.getTransactionAttributes().getOrDefault("locale", "en-US").toString()));
-        } else {
-            log.debug("This Action has a locale set to " + clone.getLocale());
-        }
-        
-
-        // Make Call Event associated with this Action available
-        clone.setEvent(event);
+    /**
+     * Called when this Action is being sent to SMA in a response. Sub classes can override to place values in the
+     * transaction attributes that must be present at render time.
+     */
+    protected void onRender() {
 
-        return clone;
     }
 
     /**
@@ -204,6 +369,21 @@ public abstract class Action<A extends Action, R extends ResponseAction> impleme
         return getTransactionAttributes().getOrDefault(key, defaultValue);
     }
 
+    /**
+     * The class in the hierarchy that declares the method (no args) that is in effect for the type.
+     */
+    private static Class<?> declaringClass(Class<?> type, String method) {
+        for (Class<?> c = type; c != Action.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(method);
+                return c;
+            } catch (NoSuchMethodException e) {
+                // Not on this class, keep going up
+            }
+        }
+        return Action.class;
+    }
+
     protected String getRecievedDigitsFromAction() {
         final var ad = getEvent().getActionData();
         if (ad instanceof ReceivedDigits receivedDigits) {
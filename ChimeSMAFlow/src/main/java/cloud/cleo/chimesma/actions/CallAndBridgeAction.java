@@ -1,6 +1,7 @@
 package cloud.cleo.chimesma.actions;
 
 import static cloud.cleo.chimesma.actions.Action.log;
+import cloud.cleo.chimesma.model.ParticipantTag;
 import static cloud.cleo.chimesma.model.ParticipantTag.*;
 import cloud.cleo.chimesma.model.ResponseAction;
 import cloud.cleo.chimesma.model.ResponseActionType;
@@ -13,6 +14,7 @@ import static cloud.cleo.chimesma.model.SMARequest.Status.*;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import lombok.*;
 import lombok.experimental.SuperBuilder;
@@ -21,7 +23,9 @@ import lombok.experimental.SuperBuilder;
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class CallAndBridgeAction extends Action<CallAndBridgeAction, ResponseCallAndBridge> {
 
@@ -61,6 +65,11 @@ public class CallAndBridgeAction extends Action<CallAndBridgeAction, ResponseCal
     protected Action nextLegBHangupAction;
     protected Function<CallAndBridgeAction, Action> nextLegBHangupActionF;
 
+    // Hangup for the leg still connected, built once per leg instead of registering a new Action on every event
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final Map<ParticipantTag, HangupAction> hangupActions = new ConcurrentHashMap<>();
+
     @Override
     protected ResponseAction getResponse() {
 
@@ -81,7 +90,7 @@ public class CallAndBridgeAction extends Action<CallAndBridgeAction, ResponseCal
         }
 
         final var myArn = getFuncValOrDefault(arnF, arn);
-        final var myUri = getFuncValOrDefault(uriF, uri);
+        final var myUri = getDestinationUri();
 
         final var endpoint = ResponseCallAndBridge.Endpoint.builder()
                 .withArn(myArn)
@@ -90,14 +99,15 @@ public class CallAndBridgeAction extends Action<CallAndBridgeAction, ResponseCal
                 .withUri(myUri)
                 .build();
 
-        if (getFuncValOrDefault(callerIdNumberF, callerIdNumber) == null) {
+        var myCallerIdNumber = getFuncValOrDefault(callerIdNumberF, callerIdNumber);
+        if (myCallerIdNumber == null) {
             // Set to from Number if not provided because this is a required param
-            setCallerIdNumber(getEvent().getCallDetails().getParticipants().get(0).getFrom());
+            myCallerIdNumber = getEvent().getCallDetails().getParticipants().get(0).getFrom();
         }
 
         final var params = ResponseCallAndBridge.Parameters.builder()
                 .withCallTimeoutSeconds(getCallTimeoutSeconds())
-                .withCallerIdNumber(getFuncValOrDefault(callerIdNumberF, callerIdNumber))
+                .withCallerIdNumber(myCallerIdNumber)
                 .withRingbackTone(audioSource)
                 .withEndpoints(List.of(endpoint))
                 .withSipHeaders(getSipHeaders().isEmpty() ? null : getSipHeaders())
@@ -105,6 +115,15 @@ public class CallAndBridgeAction extends Action<CallAndBridgeAction, ResponseCal
         return ResponseCallAndBridge.builder().withParameters(params).build();
     }
 
+    /**
+     * The URI to dial. Sub classes can override to send the call somewhere else at runtime.
+     *
+     * @return the URI for the endpoint
+     */
+    protected String getDestinationUri() {
+        return getFuncValOrDefault(uriF, uri);
+    }
+
     @Override
     protected Action getNextRoutingAction() {
         if (getEvent() != null) {
@@ -160,8 +179,9 @@ public class CallAndBridgeAction extends Action<CallAndBridgeAction, ResponseCal
                         .findAny().orElse(null);
                 // Disconnet the participant that is still in a connected state
                 if (participant != null) {
-                    log.debug("CallAndBridge Hangup Event, 2 participants, One still connected, disconnecting " + participant.getParticipantTag());
-                    return HangupAction.builder().withParticipantTag(participant.getParticipantTag()).build();
+                    log.debug("CallAndBridge Hangup Event, 2 participants, One still connected, disconnecting {}", participant.getParticipantTag());
+                    return hangupActions.computeIfAbsent(participant.getParticipantTag(),
+                            tag -> HangupAction.builder().withParticipantTag(tag).build());
                 }
             }
         }
@@ -1,7 +1,9 @@
 package cloud.cleo.chimesma.actions;
 
 import cloud.cleo.chimesma.model.ResponseAction;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
@@ -9,7 +11,9 @@ import lombok.experimental.SuperBuilder;
  * 
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class CallAndBridgeActionTBTSIP extends CallAndBridgeAction {
 
@@ -0,0 +1,176 @@
+package cloud.cleo.chimesma.actions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In memory state for calls, keyed by the SMA Transaction ID.
+ *
+ * A call generates many invocations and when they land on the same warm container, objects placed here by one
+ * invocation are still around for the next. It's only a cache, any invocation can land on a container that has never
+ * seen the call, so state must always be recoverable from the Transaction Attributes (or wherever it came from).
+ *
+ * Bounded by the number of calls, least recently used calls are dropped first and calls that have not been seen
+ * within the TTL are treated as gone.
+ *
+ * @author sjensen
+ */
+final class CallStateCache {
+
+    // Snapshots of the stored state, keys sorted so the same state always gives the same bytes
+    private final static ObjectMapper mapper = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final int maxCalls;
+    private final long ttlNanos;
+
+    // Access ordered, so the eldest entry is the least recently used call
+    private final LinkedHashMap<String, Call> calls;
+
+    /**
+     * @param maxCalls max number of calls to hold state for, 0 disables the cache
+     * @param ttl how long after the last invocation a call's state is kept
+     */
+    CallStateCache(int maxCalls, Duration ttl) {
+        this.maxCalls = maxCalls;
+        this.ttlNanos = ttl.toNanos();
+        this.calls = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Call> eldest) {
+                return size() > CallStateCache.this.maxCalls;
+            }
+        };
+    }
+
+    /**
+     * State for the call, created empty when the call is not known (or has expired).
+     *
+     * @param transactionId
+     * @return the call
+     */
+    Call get(String transactionId) {
+        if (maxCalls <= 0 || transactionId == null) {
+            // Nothing is kept, state only lives for this invocation
+            return new Call();
+        }
+        final var now = System.nanoTime();
+        synchronized (calls) {
+            var call = calls.get(transactionId);
+            if (call == null || now - call.lastAccess > ttlNanos) {
+                call = new Call();
+                calls.put(transactionId, call);
+            }
+            call.lastAccess = now;
+            return call;
+        }
+    }
+
+    /**
+     * Drop the state for a call that has ended.
+     *
+     * @param transactionId
+     */
+    void remove(String transactionId) {
+        if (maxCalls <= 0 || transactionId == null) {
+            return;
+        }
+        synchronized (calls) {
+            calls.remove(transactionId);
+        }
+    }
+
+    /**
+     * What is held for a single call.
+     */
+    static final class Call {
+
+        // Calls can be processed on more than one thread at a time (like a CALL_UPDATE_REQUESTED during an Action)
+        private final Map<String, Object> state = new ConcurrentHashMap<>();
+
+        // State from the CallStateStore, loaded on first use, and the version it was loaded or last saved at
+        private Map<String, Object> stored;
+        private long storedVersion;
+
+        // JSON of the stored state as it is in the store, to tell whether an invocation changed it
+        private byte[] storedSnapshot;
+
+        private long lastAccess;
+
+        /**
+         * @return state only kept in memory
+         */
+        Map<String, Object> state() {
+            return state;
+        }
+
+        /**
+         * State from the CallStateStore, the copy held here is only used while it's still the version the call is at.
+         *
+         * @param version the version the last invocation of the call saved (from the Transaction Attributes)
+         * @param loader loads the state from the store
+         * @return mutable stored state
+         */
+        synchronized Map<String, Object> stored(long version, Supplier<CallStateStore.Stored> loader) {
+            if (stored == null || storedVersion != version) {
+                // Never loaded here, or the call was on another container since
+                final var loaded = loader.get();
+                final var map = new ConcurrentHashMap<String, Object>();
+                // Nulls can't be held, a missing key reads the same anyway
+                loaded.state().forEach((k, v) -> {
+                    if (v != null) {
+                        map.put(k, v);
+                    }
+                });
+                stored = map;
+                storedVersion = loaded.version();
+                storedSnapshot = snapshot(map);
+            }
+            return stored;
+        }
+
+        /**
+         * Write the stored state through to the store when it changed since it was loaded or last saved. Changes are
+         * found by comparing JSON, so values changed in place (like a List in the map) are saved too.
+         *
+         * @param transactionId
+         * @param store
+         * @return the version now in the store, or -1 when it's unknown
+         */
+        synchronized long save(String transactionId, CallStateStore store) {
+            if (stored == null) {
+                return storedVersion;
+            }
+            final var snapshot = snapshot(stored);
+            if (snapshot != null && Arrays.equals(snapshot, storedSnapshot)) {
+                // Only read, the store already has it
+                return storedVersion;
+            }
+            final var version = store.save(transactionId, stored, storedVersion);
+            if (version < 0) {
+                // Don't trust this copy any longer, the next use loads whatever the store has
+                stored = null;
+                storedSnapshot = null;
+            } else {
+                storedVersion = version;
+                storedSnapshot = snapshot;
+            }
+            return version;
+        }
+
+        /**
+         * @return the state as JSON, or null when it can't be written as JSON (then it's always saved)
+         */
+        private static byte[] snapshot(Map<String, Object> state) {
+            try {
+                return mapper.writeValueAsBytes(state);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package cloud.cleo.chimesma.actions;
+
+import java.util.Map;
+
+/**
+ * External store for call state that is too large (or too rich) for the Transaction Attributes.
+ *
+ * Actions use it through {@link Action#getStoredState()}. The state is loaded the first time an Action asks for it and
+ * saved with {@link #save(String, Map, long)} before every invocation that changed it returns, since the next
+ * invocation of the call can land on any container. Saves are conditional on the version that was loaded, so a
+ * container holding an older copy never overwrites state written by another. When two invocations of a call change the
+ * state at once (like a CALL_UPDATE_REQUESTED during an Action), the one that saves second has its changes dropped.
+ * The store is told when the call is over with {@link #callEnded(String)}.
+ *
+ * Values must be something Jackson can write as JSON (Strings, numbers, Lists, Maps, simple beans), objects come back
+ * as Maps when loaded by another container.
+ *
+ * @author sjensen
+ */
+public interface CallStateStore {
+
+    /**
+     * State as it is in the store.
+     *
+     * @param state
+     * @param version changes on every save, 0 when nothing has been saved for the call
+     */
+    record Stored(Map<String, Object> state, long version) {
+
+        static final Stored EMPTY = new Stored(Map.of(), 0);
+    }
+
+    /**
+     * Load the state for a call.
+     *
+     * @param transactionId SMA Transaction ID of the call
+     * @return the state, empty with version 0 when there is none
+     */
+    Stored load(String transactionId);
+
+    /**
+     * Save the state after an invocation that changed it, only when the call is still at the given version.
+     *
+     * @param transactionId SMA Transaction ID of the call
+     * @param state current state, implementations must copy what they keep
+     * @param version the version the state was loaded (or last saved) at
+     * @return the new version, or -1 when nothing was written (the state was saved elsewhere since or the write failed)
+     */
+    long save(String transactionId, Map<String, Object> state, long version);
+
+    /**
+     * The call has hung up.
+     *
+     * @param transactionId SMA Transaction ID of the call
+     */
+    void callEnded(String transactionId);
+
+}
@@ -0,0 +1,299 @@
+package cloud.cleo.chimesma.actions;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * A Flow defined in JSON or YAML instead of Java, so IVR changes can be pushed without redeploying the Lambda. Use
+ * this class as the Lambda handler.
+ *
+ * FLOW_DEFINITION is where the definition is read from, either s3://bucket/key or a resource on the classpath (default
+ * flow.json). It's read as YAML when the name ends in .yaml or .yml, which requires
+ * com.fasterxml.jackson.dataformat:jackson-dataformat-yaml on the classpath, and S3 requires software.amazon.awssdk:s3.
+ *
+ * A definition in S3 is checked every FLOW_CHECK_SECONDS (default 60) with a conditional GET, and only when its ETag
+ * changed is it parsed, validated, built and the Flow compiled again. Invocations in between run the built Actions
+ * just like a Flow written in Java. A definition that fails to load is logged and the current one is kept, calls
+ * already in progress finish on the Actions they started with. The Actions of a replaced definition are released after
+ * FLOW_RETIRE_MINUTES (default 1440, longer than any call should last) so reloads don't grow the Action registry.
+ *
+ * @author sjensen
+ */
+public class DeclarativeFlow extends AbstractFlow {
+
+    final static String DEFINITION_ENV = "FLOW_DEFINITION";
+    final static String CHECK_ENV = "FLOW_CHECK_SECONDS";
+    final static String RETIRE_ENV = "FLOW_RETIRE_MINUTES";
+
+    private final static ObjectMapper mapper = new ObjectMapper();
+
+    private final static String location = System.getenv(DEFINITION_ENV) != null ? System.getenv(DEFINITION_ENV) : "flow.json";
+
+    private final static long checkMillis = Duration.ofSeconds(envLong(CHECK_ENV, 60)).toMillis();
+
+    private final static long retireMillis = Duration.ofMinutes(envLong(RETIRE_ENV, 1440)).toMillis();
+
+    private final static Source source = location.startsWith("s3://") ? new S3Source(location) : new ClasspathSource(location);
+
+    // The definition the Flow was last compiled from
+    private static volatile Loaded loaded;
+
+    // A new definition while the Flow is being compiled from it, only published once that worked
+    private static volatile Loaded compiling;
+
+    // When the source should next be checked for a new version
+    private static volatile long nextCheck;
+
+    // Definitions that were replaced, oldest first, guarded by the class lock
+    private final static ArrayDeque<Retired> retired = new ArrayDeque<>();
+
+    /**
+     * The definition as read from the source.
+     *
+     * @param version changes whenever the content does
+     * @param content
+     */
+    record Fetched(String version, byte[] content) {
+
+    }
+
+    private record Loaded(String version, FlowDefinition.Built flow) {
+
+    }
+
+    private record Retired(Loaded definition, long replacedAt) {
+
+    }
+
+    /**
+     * Where a definition is read from.
+     */
+    interface Source {
+
+        /**
+         * @param version the version already loaded or null for none
+         * @return the definition or null when it's still the same version
+         * @throws Exception
+         */
+        Fetched fetch(String version) throws Exception;
+
+        /**
+         * @return whether the definition can change while the Lambda is running
+         */
+        boolean canChange();
+    }
+
+    @Override
+    protected Action getInitialAction() {
+        return definition().flow().start();
+    }
+
+    @Override
+    protected Action getErrorAction() {
+        return definition().flow().error();
+    }
+
+    @Override
+    protected void newCallHandler(Action action) {
+        // Nothing beyond what the definition does, extend this class for domain specific handling
+    }
+
+    @Override
+    protected void hangupHandler(Action action) {
+        // Nothing beyond what the definition does, extend this class for domain specific handling
+    }
+
+    private static Loaded definition() {
+        final var next = compiling;
+        return next != null ? next : current();
+    }
+
+    @Override
+    public void handleRequest(InputStream in, OutputStream out, Context cntxt) throws IOException {
+        refresh();
+        super.handleRequest(in, out, cntxt);
+    }
+
+    private static Loaded current() {
+        if (loaded == null) {
+            synchronized (DeclarativeFlow.class) {
+                if (loaded == null) {
+                    try {
+                        loaded = load(source.fetch(null));
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Could not load the Flow definition from " + location, e);
+                    }
+                    nextCheck = System.currentTimeMillis() + checkMillis;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Pick up a new version of the definition when it's time to check.
+     */
+    private void refresh() {
+        if (!source.canChange() || System.currentTimeMillis() < nextCheck) {
+            return;
+        }
+        synchronized (DeclarativeFlow.class) {
+            final var now = System.currentTimeMillis();
+            if (now < nextCheck) {
+                return;
+            }
+            nextCheck = now + checkMillis;
+
+            final var current = current();
+            try {
+                release(now);
+                final var fetched = source.fetch(current.version());
+                if (fetched == null) {
+                    log.debug("Flow definition {} is unchanged", current::version);
+                    return;
+                }
+                final var next = load(fetched);
+                compiling = next;
+                try {
+                    recompileFlow();
+                } finally {
+                    compiling = null;
+                }
+                loaded = next;
+                retired.add(new Retired(current, now));
+                log.info("Flow definition changed from version {} to {}", current.version(), fetched.version());
+            } catch (Exception e) {
+                log.error("Could not reload the Flow definition from {}, keeping version {}", location, current.version(), e);
+            }
+        }
+    }
+
+    /**
+     * Release the Actions of definitions replaced long enough ago that no call can still be on them.
+     *
+     * @param now
+     */
+    private void release(long now) {
+        var released = false;
+        while (!retired.isEmpty() && now - retired.peek().replacedAt() >= retireMillis) {
+            final var old = retired.poll().definition();
+            releaseActions(old.flow().actions());
+            log.info("Released the Actions of Flow definition version {}", old.version());
+            released = true;
+        }
+        if (released) {
+            // Drop the chains that still refer to them
+            recompileFlow();
+        }
+    }
+
+    private static Loaded load(Fetched fetched) throws IOException {
+        final var reader = location.endsWith(".yaml") || location.endsWith(".yml") ? Yaml.mapper : mapper;
+        final var definition = reader.readValue(fetched.content(), FlowDefinition.class);
+        definition.validate();
+        final var built = definition.build();
+        log.info("Loaded Flow definition version {} with {} Actions from {}", fetched.version(), built.actions().size(), location);
+        return new Loaded(fetched.version(), built);
+    }
+
+    private static long envLong(String name, long defaultValue) {
+        final var value = System.getenv(name);
+        if (value != null && !value.isBlank()) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                log.error("{} is not a number, using {}", name, defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Only loaded when a YAML definition is used.
+     */
+    private static class Yaml {
+
+        private final static ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    }
+
+    /**
+     * Definition packaged with the Lambda, it never changes.
+     */
+    private static class ClasspathSource implements Source {
+
+        private final String resource;
+
+        ClasspathSource(String resource) {
+            this.resource = resource.startsWith("/") ? resource.substring(1) : resource;
+        }
+
+        @Override
+        public Fetched fetch(String version) throws IOException {
+            if (version != null) {
+                return null;
+            }
+            try (var in = DeclarativeFlow.class.getClassLoader().getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new IOException("No Flow definition " + resource + " on the classpath");
+                }
+                return new Fetched("classpath", in.readAllBytes());
+            }
+        }
+
+        @Override
+        public boolean canChange() {
+            return false;
+        }
+    }
+
+    /**
+     * Definition in S3, versioned by its ETag.
+     */
+    private static class S3Source implements Source {
+
+        private final String bucket;
+        private final String key;
+        private final S3Client s3 = S3Client.create();
+
+        S3Source(String location) {
+            final var path = location.substring("s3://".length());
+            final var slash = path.indexOf('/');
+            if (slash < 1 || slash == path.length() - 1) {
+                throw new IllegalArgumentException(DEFINITION_ENV + " must be s3://bucket/key, not " + location);
+            }
+            this.bucket = path.substring(0, slash);
+            this.key = path.substring(slash + 1);
+        }
+
+        @Override
+        public Fetched fetch(String version) throws IOException {
+            final var request = GetObjectRequest.builder().bucket(bucket).key(key);
+            if (version != null) {
+                // One request that only returns the body when the definition changed
+                request.ifNoneMatch(version);
+            }
+            try (var in = s3.getObject(request.build())) {
+                return new Fetched(in.response().eTag(), in.readAllBytes());
+            } catch (S3Exception e) {
+                if (e.statusCode() == 304) {
+                    return null;
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean canChange() {
+            return true;
+        }
+    }
+}
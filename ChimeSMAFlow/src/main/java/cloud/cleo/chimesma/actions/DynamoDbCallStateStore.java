@@ -0,0 +1,136 @@
+package cloud.cleo.chimesma.actions;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Expression;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.model.GetItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.PutItemEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+
+/**
+ * Call state in a DynamoDB table with a String partition key named "transactionId" (enable TTL on "ttl").
+ *
+ * Every save is written straight through with a put that is conditional on the "version" attribute, so the next
+ * invocation of the call finds it on any container and an older copy never overwrites a newer one. Loads are strongly
+ * consistent for the same reason. When the condition fails the state was saved by another invocation of the call
+ * first, the changes of this one are dropped (logged as an error) and the next invocation loads what the other saved.
+ *
+ * Requires software.amazon.awssdk:dynamodb-enhanced on the classpath.
+ *
+ * @author sjensen
+ */
+public class DynamoDbCallStateStore implements CallStateStore {
+
+    private final static Logger log = LogManager.getLogger(DynamoDbCallStateStore.class);
+
+    private final static TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private final static ObjectMapper mapper = new ObjectMapper();
+
+    private final DynamoDbTable<CallStateItem> table;
+    private final Duration ttl;
+
+    /**
+     * Store with a default client and state kept for a day.
+     *
+     * @param tableName
+     */
+    public DynamoDbCallStateStore(String tableName) {
+        this(DynamoDbEnhancedClient.create(), tableName, Duration.ofDays(1));
+    }
+
+    /**
+     * @param client
+     * @param tableName
+     * @param ttl how long items live in the table
+     */
+    public DynamoDbCallStateStore(DynamoDbEnhancedClient client, String tableName, Duration ttl) {
+        this.table = client.table(tableName, TableSchema.fromBean(CallStateItem.class));
+        this.ttl = ttl;
+    }
+
+    @Override
+    public Stored load(String transactionId) {
+        try {
+            final var item = table.getItem(GetItemEnhancedRequest.builder()
+                    .key(Key.builder().partitionValue(transactionId).build())
+                    .consistentRead(true)
+                    .build());
+            if (item != null && item.getState() != null) {
+                return new Stored(mapper.readValue(item.getState(), MAP_TYPE), item.getVersion() != null ? item.getVersion() : 0);
+            }
+        } catch (Exception e) {
+            log.error("Could not load call state for {}", transactionId, e);
+        }
+        return Stored.EMPTY;
+    }
+
+    @Override
+    public long save(String transactionId, Map<String, Object> state, long version) {
+        final var item = new CallStateItem();
+        item.setTransactionId(transactionId);
+        try {
+            item.setState(mapper.writeValueAsString(state));
+        } catch (Exception e) {
+            log.error("Call state for {} can't be written as JSON, not saved", transactionId, e);
+            return -1;
+        }
+        item.setVersion(version + 1);
+        item.setTtl(Instant.now().plus(ttl).getEpochSecond());
+
+        final var condition = version == 0
+                ? Expression.builder().expression("attribute_not_exists(transactionId)").build()
+                : Expression.builder().expression("#v = :v")
+                        .putExpressionName("#v", "version")
+                        .putExpressionValue(":v", AttributeValue.fromN(Long.toString(version)))
+                        .build();
+        try {
+            table.putItem(PutItemEnhancedRequest.builder(CallStateItem.class).item(item).conditionExpression(condition).build());
+            return version + 1;
+        } catch (ConditionalCheckFailedException e) {
+            log.error("Call state for {} was saved elsewhere after version {}, changes from this invocation are dropped", transactionId, version);
+        } catch (Exception e) {
+            log.error("Could not save call state for {}", transactionId, e);
+        }
+        return -1;
+    }
+
+    @Override
+    public void callEnded(String transactionId) {
+        // Nothing is held back, the item expires with its TTL
+    }
+
+    /**
+     * Item in the table, the state is stored as JSON.
+     */
+    @DynamoDbBean
+    @NoArgsConstructor
+    @Data
+    public static class CallStateItem {
+
+        private String transactionId;
+        private String state;
+        private Long version;
+        private Long ttl;
+
+        @DynamoDbPartitionKey
+        public String getTransactionId() {
+            return transactionId;
+        }
+    }
+}
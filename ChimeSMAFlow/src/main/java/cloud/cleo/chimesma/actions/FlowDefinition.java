@@ -0,0 +1,322 @@
+package cloud.cleo.chimesma.actions;
+
+import cloud.cleo.chimesma.actions.PlayAudioAndGetDigitsAction.AudioSourceLocale;
+import cloud.cleo.chimesma.actions.SpeakAndGetDigitsAction.SpeechParameters;
+import cloud.cleo.chimesma.model.ReceivedDigits;
+import cloud.cleo.chimesma.model.ResponseSpeak.Engine;
+import cloud.cleo.chimesma.model.ResponseSpeak.VoiceId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A Flow as read from JSON or YAML, see {@link DeclarativeFlow}.
+ *
+ * Every Action has a name (id) that next, error and digits refer to. Routing with next and error is set directly on
+ * the Actions, so those chains compile just like a Flow written in Java. Only digits tables route with a function.
+ *
+ * @author sjensen
+ */
+@Data
+@NoArgsConstructor
+final class FlowDefinition {
+
+    /**
+     * Action a new call starts on.
+     */
+    private String start;
+
+    /**
+     * Flow level error Action, a hangup when not set.
+     */
+    private String error;
+
+    private List<Step> actions = new ArrayList<>();
+
+    enum Type {
+        Speak, SpeakAndGetDigits, PlayAudio, PlayAudioAndGetDigits, Pause, Hangup, CallAndBridge
+    }
+
+    /**
+     * One Action, properties are named like the builder methods and only the ones for the type are used.
+     */
+    @Data
+    @NoArgsConstructor
+    static class Step {
+
+        private String id;
+        private Type type;
+        private String description;
+        private String locale;
+
+        // Routing by Action id
+        private String next;
+        private String error;
+        // Received digits to Action id, anything else goes to next
+        private Map<String, String> digits;
+
+        // Speak
+        private String text;
+        private String failureText;
+        private VoiceId voiceId;
+        private Engine engine;
+
+        // PlayAudio
+        private String bucketName;
+        private String key;
+        private String keyLocale;
+        private String failureKey;
+        private String failureKeyLocale;
+        private Integer repeat;
+
+        // Getting digits
+        private String inputDigitsRegex;
+        private Integer minNumberOfDigits;
+        private Integer maxNumberOfDigits;
+        private Integer inBetweenDigitsDurationInMilliseconds;
+        private Integer repeatDurationInMilliseconds;
+
+        // Pause
+        private Integer durationInMilliseconds;
+
+        // CallAndBridge
+        private String uri;
+        private String callerIdNumber;
+        private Integer callTimeoutSeconds;
+        private String ringbackToneKey;
+        private String ringbackToneKeyLocale;
+
+        // Hangup
+        private Integer sipResponseCode;
+    }
+
+    /**
+     * The Actions built from a definition.
+     *
+     * @param start
+     * @param error null when the definition has none
+     * @param actions every Action built
+     */
+    record Built(Action start, Action error, List<Action> actions) {
+
+    }
+
+    /**
+     * Check the definition can be built, reporting every problem at once.
+     *
+     * @throws IllegalArgumentException when it can't
+     */
+    void validate() {
+        final var problems = new ArrayList<String>();
+        final var ids = new HashSet<String>();
+
+        if (actions == null || actions.isEmpty()) {
+            throw new IllegalArgumentException("Flow definition has no actions");
+        }
+        for (final var step : actions) {
+            if (step.id == null || step.id.isBlank()) {
+                problems.add("action without an id");
+            } else if (!ids.add(step.id)) {
+                problems.add("duplicate action id " + step.id);
+            }
+        }
+
+        checkRef(problems, ids, "start", start, true);
+        checkRef(problems, ids, "error", error, false);
+
+        for (final var step : actions) {
+            final var name = "action " + step.id;
+            if (step.type == null) {
+                problems.add(name + " has no type");
+                continue;
+            }
+            checkRef(problems, ids, name + " next", step.next, false);
+            checkRef(problems, ids, name + " error", step.error, false);
+            if (step.digits != null) {
+                if (step.type != Type.SpeakAndGetDigits && step.type != Type.PlayAudioAndGetDigits) {
+                    problems.add(name + " has digits but " + step.type + " doesn't get digits");
+                }
+                step.digits.forEach((digits, target) -> checkRef(problems, ids, name + " digits " + digits, target, true));
+            }
+
+            switch (step.type) {
+                case Speak, SpeakAndGetDigits -> {
+                    if (step.text == null || step.text.isBlank()) {
+                        problems.add(name + " has no text");
+                    }
+                }
+                case PlayAudio, PlayAudioAndGetDigits -> {
+                    if (step.key == null && step.keyLocale == null) {
+                        problems.add(name + " has no key or keyLocale");
+                    }
+                }
+                case CallAndBridge -> {
+                    if (step.uri == null || step.uri.isBlank()) {
+                        problems.add(name + " has no uri");
+                    }
+                }
+            }
+        }
+
+        if (!problems.isEmpty()) {
+            throw new IllegalArgumentException("Flow definition is invalid: " + String.join(", ", problems));
+        }
+    }
+
+    private static void checkRef(List<String> problems, Set<String> ids, String name, String ref, boolean required) {
+        if (ref == null) {
+            if (required) {
+                problems.add(name + " is required");
+            }
+        } else if (!ids.contains(ref)) {
+            problems.add(name + " refers to unknown action " + ref);
+        }
+    }
+
+    /**
+     * Build and wire the Actions, the definition must have been validated.
+     *
+     * @return the start and error Actions
+     */
+    Built build() {
+        final var built = new LinkedHashMap<String, Action>();
+        for (final var step : actions) {
+            built.put(step.id, toAction(step));
+        }
+
+        // Wire after everything is built so Actions can refer to each other in any order (like menus looping back)
+        for (final var step : actions) {
+            final var action = built.get(step.id);
+            if (step.next != null) {
+                action.setNextAction(built.get(step.next));
+            }
+            if (step.error != null) {
+                action.setErrorAction(built.get(step.error));
+            }
+            if (step.digits != null) {
+                final var table = new HashMap<String, Action>();
+                step.digits.forEach((digits, target) -> table.put(digits, built.get(target)));
+                action.setNextActionF(digitsRouting(Collections.unmodifiableMap(table), action.getNextAction()));
+            }
+        }
+
+        return new Built(built.get(start), error != null ? built.get(error) : null, List.copyOf(built.values()));
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Function<Action, Action> digitsRouting(Map<String, Action> table, Action otherwise) {
+        return a -> {
+            final var digits = ((ReceivedDigits) a).getReceivedDigits();
+            return digits != null ? table.getOrDefault(digits, otherwise) : otherwise;
+        };
+    }
+
+    private static Action toAction(Step step) {
+        final var locale = step.locale != null ? Locale.forLanguageTag(step.locale) : null;
+        final var description = step.description != null ? step.description : step.id;
+
+        return switch (step.type) {
+            case Speak ->
+                SpeakAction.builder()
+                .withDescription(description)
+                .withLocale(locale)
+                .withText(step.text)
+                .withVoiceId(step.voiceId)
+                .withEngine(step.engine)
+                .build();
+            case SpeakAndGetDigits ->
+                SpeakAndGetDigitsAction.builder()
+                .withDescription(description)
+                .withLocale(locale)
+                .withSpeechParameters(speech(step.text, step))
+                .withFailureSpeechParameters(step.failureText != null ? speech(step.failureText, step) : null)
+                .withInputDigitsRegex(step.inputDigitsRegex)
+                .withMinNumberOfDigits(step.minNumberOfDigits)
+                .withMaxNumberOfDigits(step.maxNumberOfDigits)
+                .withInBetweenDigitsDurationInMilliseconds(step.inBetweenDigitsDurationInMilliseconds)
+                .withRepeat(step.repeat)
+                .withRepeatDurationInMilliseconds(step.repeatDurationInMilliseconds)
+                .build();
+            case PlayAudio -> {
+                final var builder = PlayAudioAction.builder()
+                        .withDescription(description)
+                        .withLocale(locale)
+                        .withKey(step.key)
+                        .withKeyLocale(step.keyLocale)
+                        .withRepeat(step.repeat);
+                if (step.bucketName != null) {
+                    // Otherwise keep the PROMPT_BUCKET default
+                    builder.withBucketName(step.bucketName);
+                }
+                yield builder.build();
+            }
+            case PlayAudioAndGetDigits ->
+                PlayAudioAndGetDigitsAction.builder()
+                .withDescription(description)
+                .withLocale(locale)
+                .withAudioSource(audio(step.bucketName, step.key, step.keyLocale))
+                .withFailureAudioSource(step.failureKey != null || step.failureKeyLocale != null
+                        ? audio(step.bucketName, step.failureKey, step.failureKeyLocale) : null)
+                .withInputDigitsRegex(step.inputDigitsRegex)
+                .withMinNumberOfDigits(step.minNumberOfDigits)
+                .withMaxNumberOfDigits(step.maxNumberOfDigits)
+                .withInBetweenDigitsDurationInMilliseconds(step.inBetweenDigitsDurationInMilliseconds)
+                .withRepeat(step.repeat)
+                .withRepeatDurationInMilliseconds(step.repeatDurationInMilliseconds)
+                .build();
+            case Pause ->
+                PauseAction.builder()
+                .withDescription(description)
+                .withLocale(locale)
+                .withDurationInMilliseconds(step.durationInMilliseconds)
+                .build();
+            case Hangup ->
+                HangupAction.builder()
+                .withDescription(description)
+                .withLocale(locale)
+                .withSipResponseCode(step.sipResponseCode)
+                .build();
+            case CallAndBridge -> {
+                final var builder = CallAndBridgeAction.builder()
+                        .withDescription(description)
+                        .withLocale(locale)
+                        .withUri(step.uri)
+                        .withCallerIdNumber(step.callerIdNumber)
+                        .withCallTimeoutSeconds(step.callTimeoutSeconds)
+                        .withRingbackToneKey(step.ringbackToneKey)
+                        .withRingbackToneKeyLocale(step.ringbackToneKeyLocale);
+                if (step.bucketName != null) {
+                    builder.withRingbackToneBucketName(step.bucketName);
+                }
+                yield builder.build();
+            }
+        };
+    }
+
+    private static SpeechParameters speech(String text, Step step) {
+        return SpeechParameters.builder()
+                .withText(text)
+                .withVoiceId(step.voiceId)
+                .withEngine(step.engine)
+                .build();
+    }
+
+    private static AudioSourceLocale audio(String bucketName, String key, String keyLocale) {
+        final var builder = AudioSourceLocale.builder()
+                .withKey(key)
+                .withKeyLocale(keyLocale);
+        if (bucketName != null) {
+            builder.withBucketName(bucketName);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,144 @@
+package cloud.cleo.chimesma.actions;
+
+import cloud.cleo.chimesma.model.ResponseActionType;
+import cloud.cleo.chimesma.model.ResponseSpeak;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import lombok.Getter;
+
+/**
+ * Immutable form of a Flow that is compiled once when the Flow is constructed.
+ *
+ * Besides the start and error Actions, every Action whose chain of next Actions is fixed at build time (no functions
+ * and no sub class routing along the way) has that chain computed here, so invocations just pick up the list instead
+ * of walking the graph.
+ *
+ * @author sjensen
+ */
+final class FlowGraph {
+
+    // SMA allows a max of 10 actions in a single response
+    final static int MAX_ACTIONS = 10;
+
+    @Getter
+    private final Action startAction;
+
+    @Getter
+    private final Action errorAction;
+
+    @Getter
+    private final Map<Locale, ResponseSpeak.VoiceId> voiceMap;
+
+    @Getter
+    private final CallStateStore callStateStore;
+
+    // Chains indexed by the ID of the Action at the head of the chain
+    private final Chain[] chains;
+
+    private FlowGraph(Action startAction, Action errorAction, Map<Locale, ResponseSpeak.VoiceId> voiceMap,
+            CallStateStore callStateStore, Chain[] chains) {
+        this.startAction = startAction;
+        this.errorAction = errorAction;
+        this.voiceMap = voiceMap;
+        this.callStateStore = callStateStore;
+        this.chains = chains;
+    }
+
+    /**
+     * Compile the Flow.
+     *
+     * @param startAction the first action on a new call
+     * @param errorAction the Flow level error Action
+     * @param actions all the Actions that have been built
+     * @param voiceMap Locale to VoiceId for Speak Actions
+     * @param callStateStore where Actions keep call state
+     * @return compiled Flow
+     */
+    static FlowGraph compile(Action startAction, Action errorAction, Collection<Action> actions,
+            Map<Locale, ResponseSpeak.VoiceId> voiceMap, CallStateStore callStateStore) {
+        final var maxId = actions.stream().mapToInt(Action::getId).max().orElse(0);
+        final var chains = new Chain[maxId + 1];
+        for (final var action : actions) {
+            chains[action.getId()] = compileChain(action);
+        }
+        return new FlowGraph(startAction, errorAction, Map.copyOf(voiceMap), callStateStore, chains);
+    }
+
+    /**
+     * The compiled chain starting with the given Action.
+     *
+     * @param head
+     * @return the chain or null when it must be determined at runtime
+     */
+    Chain getChain(Action head) {
+        final int id = head.getId();
+        // Actions created after the Flow was compiled won't have a slot, or have one of a released Action with the same ID
+        final var chain = id < chains.length ? chains[id] : null;
+        return chain != null && chain.actions().get(0) == head ? chain : null;
+    }
+
+    private static Chain compileChain(Action head) {
+        final var list = new ArrayList<Action>(MAX_ACTIONS);
+        list.add(head);
+
+        var action = head;
+        while (action.isChainable() && list.size() < MAX_ACTIONS) {
+            if (!action.hasStaticRouting()) {
+                // Next Action can only be known when processing the event
+                return null;
+            }
+            final var next = action.getNextRoutingAction();
+            if (next == null) {
+                break;
+            }
+            list.add(next);
+            action = next;
+        }
+        return toChain(list);
+    }
+
+    private static Chain toChain(List<Action> list) {
+        // SMA fails on the first Action of a type, so the first one in the chain wins
+        final var byType = new EnumMap<ResponseActionType, Action>(ResponseActionType.class);
+        for (final var action : list) {
+            byType.putIfAbsent(action.getActionType(), action);
+        }
+        // Speak Actions may have been sent as PlayAudio, see SpeechPrompts
+        for (final var action : list) {
+            final var playedAs = SpeechPrompts.playedAs(action.getActionType());
+            if (playedAs != null) {
+                byType.putIfAbsent(playedAs, action);
+            }
+        }
+
+        return new Chain(List.copyOf(list),
+                list.stream().map(a -> a.getId().toString()).collect(Collectors.joining(",")),
+                Collections.unmodifiableMap(byType));
+    }
+
+    /**
+     * Actions that are sent together in one response.
+     *
+     * @param actions the Actions in order
+     * @param ids comma separated list of Action ID's for the Transaction Attributes
+     * @param byType the first Action in the chain for each Action type
+     */
+    record Chain(List<Action> actions, String ids, Map<ResponseActionType, Action> byType) {
+
+        /**
+         * The Action in this chain that an ACTION_FAILED event is for.
+         *
+         * @param type the Action type in the failure Action Data
+         * @return the Action or null when no Action in the chain has the type
+         */
+        Action failedAction(ResponseActionType type) {
+            return type == null ? null : byType.get(type);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package cloud.cleo.chimesma.actions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.crac.Context;
+import org.crac.Resource;
+
+/**
+ * Primes the Flow just before SnapStart takes the snapshot, so the first call after a restore finds Jackson, the
+ * Actions and logging already loaded and warmed up.
+ *
+ * Outside of SnapStart (or any CRaC runtime) this is never called.
+ *
+ * @author sjensen
+ */
+final class FlowPrimer implements Resource {
+
+    private final static Logger log = LogManager.getLogger(FlowPrimer.class);
+
+    private final AbstractFlow flow;
+
+    FlowPrimer(AbstractFlow flow) {
+        this.flow = flow;
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        try {
+            flow.primeFlow();
+            flow.prime();
+        } catch (Exception e) {
+            // A cold snapshot is still better than none
+            log.error("Priming the Flow failed, snapshot will be taken anyway", e);
+        }
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+    }
+}
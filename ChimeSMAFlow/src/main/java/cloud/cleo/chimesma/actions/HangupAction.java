@@ -2,15 +2,19 @@ package cloud.cleo.chimesma.actions;
 
 import cloud.cleo.chimesma.model.*;
 import java.util.function.Function;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 @NoArgsConstructor
 public class HangupAction extends Action<HangupAction,ResponseHangup> {
@@ -29,6 +33,11 @@ public class HangupAction extends Action<HangupAction,ResponseHangup> {
         return ResponseHangup.builder().withParameters(params).build();
     }
 
+    @Override
+    protected boolean hasStaticResponse() {
+        return sipResponseCodeF == null;
+    }
+
     @Override
     public ResponseActionType getActionType() {
         return ResponseActionType.Hangup;
@@ -0,0 +1,55 @@
+package cloud.cleo.chimesma.actions;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Call state kept in memory, for testing Flows locally (or with the Simulator) without a table.
+ *
+ * State is kept after calls end so it can be inspected, use {@link #clear()} between runs. Never use it in a deployed
+ * Lambda, nothing is ever removed.
+ *
+ * @author sjensen
+ */
+public class InMemoryCallStateStore implements CallStateStore {
+
+    private final Map<String, Stored> calls = new ConcurrentHashMap<>();
+
+    @Override
+    public Stored load(String transactionId) {
+        final var stored = calls.get(transactionId);
+        return stored != null ? new Stored(new HashMap<>(stored.state()), stored.version()) : Stored.EMPTY;
+    }
+
+    @Override
+    public long save(String transactionId, Map<String, Object> state, long version) {
+        final var saved = new Stored(new HashMap<>(state), version + 1);
+        final var current = calls.compute(transactionId, (id, stored)
+                -> (stored == null ? 0 : stored.version()) == version ? saved : stored);
+        return current == saved ? saved.version() : -1;
+    }
+
+    @Override
+    public void callEnded(String transactionId) {
+        // Kept so it can be inspected
+    }
+
+    /**
+     * The state last saved for a call.
+     *
+     * @param transactionId
+     * @return the state or null when nothing was saved
+     */
+    public Map<String, Object> get(String transactionId) {
+        final var stored = calls.get(transactionId);
+        return stored != null ? stored.state() : null;
+    }
+
+    /**
+     * Forget all calls.
+     */
+    public void clear() {
+        calls.clear();
+    }
+}
@@ -0,0 +1,244 @@
+package cloud.cleo.chimesma.actions;
+
+import cloud.cleo.chimesma.model.SMARequest;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Call specific state for the SMA event being processed. Actions are built once and shared by every invocation, so
+ * anything that belongs to the call (the event, call ID, attributes and current locale) lives here instead.
+ *
+ * The context is bound to the thread handling the event for the duration of the invocation, which is what allows
+ * Action functions to keep taking just the Action as their argument.
+ *
+ * @author sjensen
+ */
+@Getter
+final class InvocationContext implements AutoCloseable {
+
+    private final static ThreadLocal<InvocationContext> CURRENT = new ThreadLocal<>();
+
+    // Used when the call has not established a locale yet
+    private final static Locale DEFAULT_LOCALE = Locale.forLanguageTag("en-US");
+
+    // Stands in for functions that returned null
+    private final static Object NULL = new Object();
+
+    /**
+     * Call Event being processed
+     */
+    private final SMARequest event;
+
+    /**
+     * Call ID of the first participant (LEG-A)
+     */
+    private final String callId;
+
+    /**
+     * SMA Transaction ID, the same for every invocation of the call
+     */
+    private final String transactionId;
+
+    @Setter
+    private Map<String, Object> transactionAttributes;
+
+    /**
+     * Locale for Actions that don't specify one
+     */
+    @Setter
+    private Locale locale;
+
+    // Function values computed during this invocation, created on first use
+    @Getter(AccessLevel.NONE)
+    private Map<FunctionKey, Object> functionValues;
+
+    // Above 0 while an Action's debug summary is being built
+    @Getter(AccessLevel.NONE)
+    private int summarizing;
+
+    // What is held in memory for the call, looked up on first use
+    @Getter(AccessLevel.NONE)
+    private CallStateCache.Call call;
+
+    /**
+     * Whether an Action used the state from the CallStateStore
+     */
+    private boolean storedStateUsed;
+
+    /**
+     * Whether this is a synthetic event used to prime the Flow before a snapshot
+     */
+    private final boolean priming;
+
+    private InvocationContext(SMARequest event, boolean priming) {
+        this.event = event;
+        this.priming = priming;
+
+        final var cd = event.getCallDetails();
+        this.transactionId = cd != null ? cd.getTransactionId() : null;
+        if (cd != null) {
+            // We should always have a CallId on first participant
+            final var participants = cd.getParticipants();
+            this.callId = participants == null || participants.isEmpty() ? null : participants.get(0).getCallId();
+
+            // On new calls incoming will be null, so we need to create
+            if (cd.getTransactionAttributes() == null) {
+                cd.setTransactionAttributes(new HashMap<>());
+            }
+            this.transactionAttributes = cd.getTransactionAttributes();
+        } else {
+            this.callId = null;
+            this.transactionAttributes = new HashMap<>();
+        }
+
+        // Use language tags as that is consistant for in and out
+        final var tag = transactionAttributes.get("locale");
+        this.locale = tag != null ? Locale.forLanguageTag(tag.toString()) : DEFAULT_LOCALE;
+    }
+
+    /**
+     * Bind a new context for the event to the current thread.
+     *
+     * @param event
+     * @return the context, which must be closed when the invocation is complete
+     */
+    static InvocationContext open(SMARequest event) {
+        final var ctx = new InvocationContext(event, false);
+        CURRENT.set(ctx);
+        return ctx;
+    }
+
+    /**
+     * Bind a context for a synthetic event used to prime the Flow.
+     *
+     * @param event
+     * @return the context, which must be closed when priming is complete
+     */
+    static InvocationContext prime(SMARequest event) {
+        final var ctx = new InvocationContext(event, true);
+        CURRENT.set(ctx);
+        return ctx;
+    }
+
+    /**
+     * The context for the invocation running on this thread.
+     *
+     * @return the context or null when not processing an event (like when the Flow is being built)
+     */
+    static InvocationContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Get the value of an Action function, computing it only the first time it is asked for during this invocation.
+     *
+     * @param <V>
+     * @param action the Action the function is applied to
+     * @param function
+     * @param compute computes the value when not already known
+     * @return the value
+     */
+    @SuppressWarnings("unchecked")
+    <V> V functionValue(Action action, Function<?, ?> function, Supplier<V> compute) {
+        if (functionValues == null) {
+            functionValues = new HashMap<>();
+        }
+        final var key = new FunctionKey(action, function);
+        final var cached = functionValues.get(key);
+        if (cached != null) {
+            return cached == NULL ? null : (V) cached;
+        }
+        final var value = compute.get();
+        if (summarizing > 0) {
+            // Only for logging, what is rendered must not depend on when (or whether) it was logged
+            return value;
+        }
+        // Not computeIfAbsent() because functions can ask for other function values
+        functionValues.put(key, value == null ? NULL : value);
+        return value;
+    }
+
+    /**
+     * Build a debug summary, function values it computes are not kept.
+     *
+     * @param summary
+     * @return the summary
+     */
+    StringBuilder summarize(Supplier<StringBuilder> summary) {
+        summarizing++;
+        try {
+            return summary.get();
+        } finally {
+            summarizing--;
+        }
+    }
+
+    /**
+     * In memory state for the call.
+     *
+     * @return state kept across invocations that land on this container
+     */
+    Map<String, Object> getCallState() {
+        return call().state();
+    }
+
+    /**
+     * State for the call from the CallStateStore, loaded again whenever the copy held in memory isn't the version the
+     * call is at.
+     *
+     * @param store
+     * @return mutable stored state
+     */
+    Map<String, Object> getStoredState(CallStateStore store) {
+        storedStateUsed = true;
+        return call().stored(storedVersion(), () -> store.load(transactionId));
+    }
+
+    /**
+     * Write the stored state through to the store when it changed.
+     *
+     * @param store
+     * @return the version now in the store, or -1 when it's unknown
+     */
+    long saveStoredState(CallStateStore store) {
+        return call().save(transactionId, store);
+    }
+
+    private long storedVersion() {
+        final var value = transactionAttributes.get(AbstractFlow.STORED_STATE_VERSION);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private CallStateCache.Call call() {
+        if (call == null) {
+            call = AbstractFlow.getCall(transactionId);
+        }
+        return call;
+    }
+
+    @Override
+    public void close() {
+        CURRENT.remove();
+    }
+
+    /**
+     * The same function can be shared by many Actions, so values are kept per Action.
+     */
+    private record FunctionKey(Action action, Function<?, ?> function) {
+
+    }
+
+}
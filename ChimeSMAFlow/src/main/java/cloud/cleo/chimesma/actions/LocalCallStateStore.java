@@ -0,0 +1,35 @@
+package cloud.cleo.chimesma.actions;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default store when no table is configured, the stored state is only kept in memory by the call state cache. That
+ * bounds it by CALL_STATE_CACHE_SIZE and CALL_STATE_TTL_MINUTES and drops it when the call hangs up, this store itself
+ * holds nothing.
+ *
+ * Versions are unique to the container, so an invocation that lands on a container after the call was elsewhere starts
+ * from empty state rather than an old copy.
+ *
+ * @author sjensen
+ */
+final class LocalCallStateStore implements CallStateStore {
+
+    private final AtomicLong versions = new AtomicLong(ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2));
+
+    @Override
+    public Stored load(String transactionId) {
+        return Stored.EMPTY;
+    }
+
+    @Override
+    public long save(String transactionId, Map<String, Object> state, long version) {
+        return versions.incrementAndGet();
+    }
+
+    @Override
+    public void callEnded(String transactionId) {
+        // The cache drops the call
+    }
+}
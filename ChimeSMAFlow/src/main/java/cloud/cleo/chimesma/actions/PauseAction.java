@@ -1,14 +1,18 @@
 package cloud.cleo.chimesma.actions;
 
 import cloud.cleo.chimesma.model.*;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class PauseAction extends Action<PauseAction,ResponsePause> {
 
@@ -23,6 +27,11 @@ public class PauseAction extends Action<PauseAction,ResponsePause> {
         return ResponsePause.builder().withParameters(params).build();
     }
     
+    @Override
+    protected boolean hasStaticResponse() {
+        return true;
+    }
+
     @Override
     protected StringBuilder getDebugSummary() {
         final var sb = super.getDebugSummary();
@@ -1,15 +1,19 @@
 package cloud.cleo.chimesma.actions;
 
 import cloud.cleo.chimesma.model.*;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 @NoArgsConstructor
 public class PauseCallRecordingAction extends Action<PauseCallRecordingAction,ResponsePauseCallRecording> {
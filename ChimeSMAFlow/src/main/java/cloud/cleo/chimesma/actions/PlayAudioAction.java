@@ -4,14 +4,18 @@ import cloud.cleo.chimesma.model.*;
 import java.util.List;
 import java.util.function.Function;
 import lombok.Builder;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class PlayAudioAction extends Action<PlayAudioAction, ResponsePlayAudio> {
 
@@ -51,20 +55,28 @@ public class PlayAudioAction extends Action<PlayAudioAction, ResponsePlayAudio>
         return ResponsePlayAudio.builder().withParameters(params).build();
     }
 
+    @Override
+    protected boolean hasStaticResponse() {
+        return bucketNameF == null && keyF == null && keyLocaleF == null;
+    }
+
     @Override
     protected StringBuilder getDebugSummary() {
         final var sb = super.getDebugSummary();
 
-        if ( getFuncValOrDefault(keyLocaleF, keyLocale) != null) {
-            sb.append(" keyL=[").append(getFuncValOrDefault(keyLocaleF, keyLocale)).append(']');
+        final var myKeyLocale = getFuncValOrDefault(keyLocaleF, keyLocale);
+        if (myKeyLocale != null) {
+            sb.append(" keyL=[").append(myKeyLocale).append(']');
         }
 
-        if (getFuncValOrDefault(keyF, key) != null) {
-            sb.append(" key=[").append(getFuncValOrDefault(keyF, key) ).append(']');
+        final var myKey = getFuncValOrDefault(keyF, key);
+        if (myKey != null) {
+            sb.append(" key=[").append(myKey).append(']');
         }
 
-        if (getFuncValOrDefault(bucketNameF, bucketName) != null) {
-            sb.append(" bucket=[").append(getFuncValOrDefault(bucketNameF, bucketName)).append(']');
+        final var myBucket = getFuncValOrDefault(bucketNameF, bucketName);
+        if (myBucket != null) {
+            sb.append(" bucket=[").append(myBucket).append(']');
         }
 
         return sb;
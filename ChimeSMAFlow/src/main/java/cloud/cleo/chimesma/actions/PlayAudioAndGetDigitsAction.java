@@ -6,13 +6,18 @@ import java.util.LinkedList;
 import java.util.List;
 import lombok.Builder;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class PlayAudioAndGetDigitsAction extends Action<PlayAudioAndGetDigitsAction, ResponsePlayAudioAndGetDigits> implements ReceivedDigits {
 
@@ -64,6 +69,11 @@ public class PlayAudioAndGetDigitsAction extends Action<PlayAudioAndGetDigitsAct
         return ResponsePlayAudioAndGetDigits.builder().withParameters(params).build();
     }
 
+    @Override
+    protected boolean hasStaticResponse() {
+        return true;
+    }
+
     @Override
     public String getReceivedDigits() {
         return getRecievedDigitsFromAction();
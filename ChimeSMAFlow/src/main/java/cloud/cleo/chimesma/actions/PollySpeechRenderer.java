@@ -0,0 +1,77 @@
+package cloud.cleo.chimesma.actions;
+
+import cloud.cleo.chimesma.audio.WavWriter;
+import cloud.cleo.chimesma.model.ResponseSpeak.Engine;
+import cloud.cleo.chimesma.model.ResponseSpeak.VoiceId;
+import java.io.IOException;
+import java.util.Locale;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.polly.PollyClient;
+import software.amazon.awssdk.services.polly.model.OutputFormat;
+import software.amazon.awssdk.services.polly.model.SynthesizeSpeechRequest;
+import software.amazon.awssdk.services.polly.model.TextType;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Renders speech the same way the PromptCreator custom resource does, 8 kHz PCM from Polly with a WAV header so Chime
+ * can play it.
+ *
+ * @author sjensen
+ */
+final class PollySpeechRenderer implements SpeechPrompts.Renderer {
+
+    private final static Logger log = LogManager.getLogger(PollySpeechRenderer.class);
+
+    private final PollyClient polly = PollyClient.create();
+    private final S3Client s3 = S3Client.create();
+
+    @Override
+    public void render(String bucket, String key, String text, VoiceId voiceId, Engine engine, Locale locale) throws IOException {
+        if (exists(bucket, key)) {
+            // Another container (or an earlier one) already rendered it
+            log.debug("Prompt {} is already in {}", key, bucket);
+            return;
+        }
+
+        final var ssr = SynthesizeSpeechRequest.builder()
+                .engine(engine.toString())
+                .voiceId(voiceId.toString())
+                .languageCode(locale.toLanguageTag())
+                .sampleRate(String.valueOf(WavWriter.SAMPLE_RATE))
+                .outputFormat(OutputFormat.PCM)
+                .textType(text.toLowerCase().contains("<speak>") ? TextType.SSML : TextType.TEXT)
+                .text(text).build();
+
+        final WavWriter.Wav wav;
+        try (var pcm = polly.synthesizeSpeech(ssr)) {
+            wav = WavWriter.fromPcm(pcm);
+        }
+
+        s3.putObject(PutObjectRequest.builder()
+                .bucket(bucket)
+                // Chime needs this to be set exactly to the below
+                .contentType("audio/wav")
+                .key(key)
+                .build(),
+                RequestBody.fromInputStream(wav.stream(), wav.length()));
+        log.debug("Rendered {} byte prompt {}", wav.length(), key);
+    }
+
+    private boolean exists(String bucket, String key) {
+        try {
+            s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build());
+            return true;
+        } catch (S3Exception e) {
+            // Without ListBucket a missing object is a 403
+            if (e.statusCode() == 404 || e.statusCode() == 403) {
+                return false;
+            }
+            throw e;
+        }
+    }
+}
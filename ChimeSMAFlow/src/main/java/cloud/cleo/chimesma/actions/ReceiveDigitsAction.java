@@ -2,15 +2,18 @@ package cloud.cleo.chimesma.actions;
 
 import cloud.cleo.chimesma.model.*;
 import static cloud.cleo.chimesma.model.SMARequest.SMAEventType.DIGITS_RECEIVED;
-import java.util.Map;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class ReceiveDigitsAction extends Action<ReceiveDigitsAction, ResponseReceiveDigits> implements ReceivedDigits {
 
@@ -38,14 +41,10 @@ public class ReceiveDigitsAction extends Action<ReceiveDigitsAction, ResponseRec
     /**
      * Override this because this is special case where ID needs to be set at render time, not after success like LexBot
      * for example.
-     *
-     * @return
      */
     @Override
-    public Map<String, Object> getTransactionAttributes() {
-        final var attrs = super.getTransactionAttributes();
-        attrs.put(RECEIVE_DIGITS_ID, getId().toString());
-        return attrs;
+    protected void onRender() {
+        setTransactionAttribute(RECEIVE_DIGITS_ID, getId().toString());
     }
 
     @Override
@@ -68,7 +67,7 @@ public class ReceiveDigitsAction extends Action<ReceiveDigitsAction, ResponseRec
     @Override
     protected Action getNextRoutingAction() {
         if (getEvent() != null && getEvent().getInvocationEventType().equals(DIGITS_RECEIVED)) {
-            log.debug("Received Digits [" + getReceivedDigits() + "]");
+            log.debug("Received Digits [{}]", this::getReceivedDigits);
             return getDigitsRecevedAction();
         } else {
             return super.getNextRoutingAction();
@@ -3,7 +3,9 @@ package cloud.cleo.chimesma.actions;
 import cloud.cleo.chimesma.model.*;
 import java.util.List;
 import lombok.Builder;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
@@ -13,7 +15,9 @@ import lombok.experimental.SuperBuilder;
  * @author sjensen
  * @see <a href="https://docs.aws.amazon.com/chime-sdk/latest/dg/record-audio.html">AWS Documentation</a>
  */
-@Data()
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class RecordAudioAction extends Action<RecordAudioAction, ResponseRecordAudio> {
 
@@ -68,7 +72,7 @@ public class RecordAudioAction extends Action<RecordAudioAction, ResponseRecordA
         final var ad = getActionData();
         if (ad != null) {
             final var rd = ad.getRecordingDestination();
-            log.debug("Record Audio SUCCESS with file " + rd.getKey());
+            log.debug("Record Audio SUCCESS with file {}", rd.getKey());
             setTransactionAttribute(RECORD_AUDIO_BUCKET, rd.getBucketName());
             setTransactionAttribute(RECORD_AUDIO_KEY, rd.getKey());
             // Will be null silence detection or max length occurs (IE, nothing was press, but we have a file, all is good
@@ -1,23 +1,33 @@
 package cloud.cleo.chimesma.actions;
 
-import static cloud.cleo.chimesma.actions.AbstractFlow.voice_map;
+import static cloud.cleo.chimesma.actions.AbstractFlow.getVoiceMap;
 import cloud.cleo.chimesma.model.ResponseAction;
 import cloud.cleo.chimesma.model.ResponseActionType;
+import cloud.cleo.chimesma.model.ResponsePlayAudio;
 import cloud.cleo.chimesma.model.ResponseSpeak;
 import cloud.cleo.chimesma.model.ResponseSpeak.Engine;
 import cloud.cleo.chimesma.model.ResponseSpeak.VoiceId;
 import java.util.function.Function;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class SpeakAction extends Action<SpeakAction,ResponseSpeak> {
 
+    /**
+     * Where prompts rendered from Speak Actions are kept in PROMPT_BUCKET (SPEAK_PROMPT_CACHE)
+     */
+    public final static String RENDERED_PROMPT_PREFIX = "speak/";
+
     /**
      * The text you want to Speak!
      */
@@ -33,17 +43,47 @@ public class SpeakAction extends Action<SpeakAction,ResponseSpeak> {
     @Override
     protected ResponseAction getResponse() {
         var myContent = getFuncValOrDefault(textF,text);
+        if (textF == null) {
+            // Constant text may already be rendered, see SpeechPrompts
+            final var audioSource = SpeechPrompts.lookup(myContent, getMyVoiceId(), getMyEngine(), getLocale());
+            if (audioSource != null) {
+                final var params = ResponsePlayAudio.Parameters.builder()
+                        .withCallId(getCallId())
+                        .withAudioSource(audioSource)
+                        .build();
+                return ResponsePlayAudio.builder().withParameters(params).build();
+            }
+        }
         final var params = ResponseSpeak.Parameters.builder()
                 .withCallId(getCallId())
-                .withEngine(engine != null ? engine : Engine.neural)
+                .withEngine(getMyEngine())
                 .withLanguageCode(getLocale().toLanguageTag())
                 .withText(myContent)
                 .withTextType(getSpeakContentType(myContent))
-                .withVoiceId(voiceId != null ? voiceId : voice_map.get(getLocale()))
+                .withVoiceId(getMyVoiceId())
                 .build();
         return ResponseSpeak.builder().withParameters(params).build();
     }
 
+    @Override
+    protected boolean hasStaticResponse() {
+        return textF == null;
+    }
+
+    @Override
+    protected boolean isResponseSettled(ResponseAction response) {
+        // Played prompts are checked again from time to time, so only a Speak that stays one is kept
+        return response instanceof ResponseSpeak && SpeechPrompts.isSettled(text, getMyVoiceId(), getMyEngine(), getLocale());
+    }
+
+    private Engine getMyEngine() {
+        return engine != null ? engine : Engine.neural;
+    }
+
+    private VoiceId getMyVoiceId() {
+        return voiceId != null ? voiceId : getVoiceMap().get(getLocale());
+    }
+
     @Override
     public ResponseActionType getActionType() {
         return ResponseActionType.Speak;
@@ -53,8 +93,9 @@ public class SpeakAction extends Action<SpeakAction,ResponseSpeak> {
     protected StringBuilder getDebugSummary() {
         final var sb = super.getDebugSummary();
 
-        if (getFuncValOrDefault(textF,text) != null) {
-            sb.append(" text=[").append(getFuncValOrDefault(textF,text)).append(']');
+        final var myText = getFuncValOrDefault(textF, text);
+        if (myText != null) {
+            sb.append(" text=[").append(myText).append(']');
         }
 
         if (getEngine() != null) {
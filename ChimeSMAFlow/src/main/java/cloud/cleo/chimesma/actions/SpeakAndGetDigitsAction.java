@@ -1,7 +1,8 @@
 package cloud.cleo.chimesma.actions;
 
-import static cloud.cleo.chimesma.actions.AbstractFlow.voice_map;
+import static cloud.cleo.chimesma.actions.AbstractFlow.getVoiceMap;
 import cloud.cleo.chimesma.model.*;
+import cloud.cleo.chimesma.model.ResponsePlayAudio.AudioSource;
 import cloud.cleo.chimesma.model.ResponseSpeak.Engine;
 import cloud.cleo.chimesma.model.ResponseSpeak.VoiceId;
 import java.util.LinkedList;
@@ -10,15 +11,19 @@ import java.util.Locale;
 import java.util.function.Function;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class SpeakAndGetDigitsAction extends Action<SpeakAndGetDigitsAction, ResponseSpeakAndGetDigits> implements ReceivedDigits {
 
@@ -36,18 +41,36 @@ public class SpeakAndGetDigitsAction extends Action<SpeakAndGetDigitsAction, Res
 
     @Override
     protected ResponseAction getResponse() {
+        if (hasStaticResponse()) {
+            // Constant text may already be rendered, see SpeechPrompts
+            final var audioSource = getAudioSource(speechParameters);
+            final var failureAudioSource = getAudioSource(failureSpeechParameters);
+            if (audioSource != null && failureAudioSource != null) {
+                final var params = ResponsePlayAudioAndGetDigits.Parameters.builder()
+                        .withCallId(getCallId())
+                        .withInputDigitsRegex(inputDigitsRegex)
+                        .withAudioSource(audioSource)
+                        .withFailureAudioSource(failureAudioSource)
+                        .withMinNumberOfDigits(minNumberOfDigits)
+                        .withMaxNumberOfDigits(maxNumberOfDigits)
+                        .withTerminatorDigits(terminatorDigits)
+                        .withInBetweenDigitsDurationInMilliseconds(inBetweenDigitsDurationInMilliseconds)
+                        .withRepeat(repeat)
+                        .withRepeatDurationInMilliseconds(repeatDurationInMilliseconds)
+                        .build();
+                return ResponsePlayAudioAndGetDigits.builder().withParameters(params).build();
+            }
+        }
 
         final List<ResponseSpeakAndGetDigits.SpeechParameter> resp = new LinkedList<>();
         for (final SpeechParameters sp : List.of(speechParameters, failureSpeechParameters)) {
             final var myContent = getFuncValOrDefault(sp.textF, sp.text);
-            final var locale = sp.locale != null ? sp.locale : getLocale();
             final var speechParam = ResponseSpeakAndGetDigits.SpeechParameter.builder()
                     .withText(myContent)
                     .withTextType(getSpeakContentType(myContent))
-                    .withEngine(sp.engine != null ? sp.engine : Engine.neural)
-                    // If set on the builder, use that, otherwise our the Actions locale
-                    .withLanguageCode(locale.toLanguageTag())
-                    .withVoiceId(sp.voiceId != null ? sp.voiceId : voice_map.get(locale))
+                    .withEngine(getMyEngine(sp))
+                    .withLanguageCode(getMyLocale(sp).toLanguageTag())
+                    .withVoiceId(getMyVoiceId(sp))
                     .build();
 
             resp.add(speechParam);
@@ -69,6 +92,40 @@ public class SpeakAndGetDigitsAction extends Action<SpeakAndGetDigitsAction, Res
         return ResponseSpeakAndGetDigits.builder().withParameters(params).build();
     }
 
+    @Override
+    protected boolean hasStaticResponse() {
+        return speechParameters.textF == null && failureSpeechParameters.textF == null;
+    }
+
+    @Override
+    protected boolean isResponseSettled(ResponseAction response) {
+        // Played prompts are checked again from time to time, so only a Speak that stays one is kept
+        return response instanceof ResponseSpeakAndGetDigits && isSettled(speechParameters) && isSettled(failureSpeechParameters);
+    }
+
+    private AudioSource getAudioSource(SpeechParameters sp) {
+        return SpeechPrompts.lookup(sp.text, getMyVoiceId(sp), getMyEngine(sp), getMyLocale(sp));
+    }
+
+    private boolean isSettled(SpeechParameters sp) {
+        return SpeechPrompts.isSettled(sp.text, getMyVoiceId(sp), getMyEngine(sp), getMyLocale(sp));
+    }
+
+    /**
+     * If set on the builder, use that, otherwise our the Actions locale
+     */
+    private Locale getMyLocale(SpeechParameters sp) {
+        return sp.locale != null ? sp.locale : getLocale();
+    }
+
+    private Engine getMyEngine(SpeechParameters sp) {
+        return sp.engine != null ? sp.engine : Engine.neural;
+    }
+
+    private VoiceId getMyVoiceId(SpeechParameters sp) {
+        return sp.voiceId != null ? sp.voiceId : getVoiceMap().get(getMyLocale(sp));
+    }
+
     @Override
     public String getReceivedDigits() {
         return getRecievedDigitsFromAction();
@@ -0,0 +1,288 @@
+package cloud.cleo.chimesma.actions;
+
+import cloud.cleo.chimesma.model.ResponseActionType;
+import cloud.cleo.chimesma.model.ResponsePlayAudio.AudioSource;
+import cloud.cleo.chimesma.model.ResponseSpeak.Engine;
+import cloud.cleo.chimesma.model.ResponseSpeak.VoiceId;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Plays pre-rendered audio in place of Speak for text that never changes, PlayAudio starts faster than SMA
+ * synthesizing the text on every call.
+ *
+ * Enabled with SPEAK_PROMPT_CACHE=true. Once the same text, voice, engine and Locale has been spoken a few times
+ * (SPEAK_PROMPT_CACHE_AFTER, default 3) it's rendered with Polly into PROMPT_BUCKET in the background, and from then on
+ * the Action is sent as PlayAudio (or PlayAudioAndGetDigits). Until then, or if rendering fails, the Action is sent as
+ * Speak like always. Rendering runs on a background thread, so on Lambda it may only finish during a later invocation.
+ *
+ * A prompt can disappear from the bucket (emptied or the stack deleted), so a ready prompt is checked again every
+ * SPEAK_PROMPT_CACHE_CHECK_MINUTES (default 10) and right away when playing it fails, and it's rendered again if
+ * it's gone. The text is spoken while that happens.
+ *
+ * Only Actions with static text are converted, and rendered prompts are kept under the speak/ prefix in the bucket.
+ * Requires software.amazon.awssdk:polly and software.amazon.awssdk:s3 on the classpath, along with
+ * polly:SynthesizeSpeech and s3:GetObject/PutObject on the bucket.
+ *
+ * @author sjensen
+ */
+final class SpeechPrompts {
+
+    private final static Logger log = LogManager.getLogger(SpeechPrompts.class);
+
+    final static String ENABLE_ENV = "SPEAK_PROMPT_CACHE";
+    final static String AFTER_ENV = "SPEAK_PROMPT_CACHE_AFTER";
+    final static String CHECK_ENV = "SPEAK_PROMPT_CACHE_CHECK_MINUTES";
+
+    // Bumped whenever the way the WAV is produced changes
+    private final static String VERSION = "1";
+
+    private final static SpeechPrompts INSTANCE = fromEnv();
+
+    /**
+     * Renders a prompt into the bucket, doing nothing when it's already there.
+     */
+    interface Renderer {
+
+        void render(String bucket, String key, String text, VoiceId voiceId, Engine engine, Locale locale) throws Exception;
+    }
+
+    private enum State {
+        COUNTING, RENDERING, READY, FAILED
+    }
+
+    private record Speech(String text, VoiceId voiceId, Engine engine, Locale locale) {
+
+    }
+
+    private static final class Entry {
+
+        private final Speech speech;
+        private final AudioSource audioSource;
+        private final AtomicInteger uses = new AtomicInteger();
+        private final AtomicReference<State> state = new AtomicReference<>(State.COUNTING);
+
+        // When the prompt was last known to be in the bucket
+        private volatile long checkedAt;
+
+        private Entry(Speech speech, AudioSource audioSource) {
+            this.speech = speech;
+            this.audioSource = audioSource;
+        }
+    }
+
+    // Null when disabled
+    private final Renderer renderer;
+    private final String bucket;
+    private final int after;
+    private final long checkNanos;
+
+    // Only Actions with static text get here, so this is bounded by the Flow and its Locales
+    private final Map<Speech, Entry> entries = new ConcurrentHashMap<>();
+
+    // The same entries by their key in the bucket
+    private final Map<String, Entry> byKey = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    SpeechPrompts(Renderer renderer, String bucket, int after, Duration check) {
+        this.renderer = renderer;
+        this.bucket = bucket;
+        this.after = after;
+        this.checkNanos = check.toNanos();
+    }
+
+    /**
+     * The audio to play in place of speaking the text, counting this use.
+     *
+     * @param text
+     * @param voiceId
+     * @param engine
+     * @param locale
+     * @return audio or null when the text should be spoken
+     */
+    static AudioSource lookup(String text, VoiceId voiceId, Engine engine, Locale locale) {
+        return INSTANCE.audioSource(text, voiceId, engine, locale);
+    }
+
+    /**
+     * Whether the text will always be spoken from now on, so the response can be pre-rendered. A played prompt never
+     * is, since it goes back to being spoken while it's checked.
+     *
+     * @param text
+     * @param voiceId
+     * @param engine
+     * @param locale
+     * @return false while the text may still be converted
+     */
+    static boolean isSettled(String text, VoiceId voiceId, Engine engine, Locale locale) {
+        return INSTANCE.settled(text, voiceId, engine, locale);
+    }
+
+    /**
+     * Playing audio failed, when it's a rendered prompt speak the text again until it's known to be in the bucket.
+     *
+     * @param audioSource from the failed Action, may be null
+     */
+    static void playFailed(AudioSource audioSource) {
+        if (audioSource != null && audioSource.getKey() != null && audioSource.getKey().startsWith(SpeakAction.RENDERED_PROMPT_PREFIX)) {
+            INSTANCE.failed(audioSource.getKey());
+        }
+    }
+
+    /**
+     * The type SMA reports for an Action that may have been sent converted.
+     *
+     * @param type the Action's own type
+     * @return the converted type or null when the type is never converted
+     */
+    static ResponseActionType playedAs(ResponseActionType type) {
+        return switch (type) {
+            case Speak ->
+                ResponseActionType.PlayAudio;
+            case SpeakAndGetDigits ->
+                ResponseActionType.PlayAudioAndGetDigits;
+            default ->
+                null;
+        };
+    }
+
+    private AudioSource audioSource(String text, VoiceId voiceId, Engine engine, Locale locale) {
+        if (renderer == null || text == null || voiceId == null || engine == null || locale == null) {
+            return null;
+        }
+        final var ctx = InvocationContext.current();
+        if (ctx != null && ctx.isPriming()) {
+            // Not a real use of the text
+            return null;
+        }
+        final var speech = new Speech(text, voiceId, engine, locale);
+        final var entry = entries.computeIfAbsent(speech, s -> {
+            final var e = new Entry(s, AudioSource.builder()
+                    .withBucketName(bucket)
+                    .withKey(key(s))
+                    .build());
+            byKey.put(e.audioSource.getKey(), e);
+            return e;
+        });
+
+        final var state = entry.state.get();
+        if (state == State.READY) {
+            if (System.nanoTime() - entry.checkedAt < checkNanos) {
+                return entry.audioSource;
+            }
+            check(entry);
+            return null;
+        }
+        if (state == State.COUNTING && entry.uses.incrementAndGet() >= after
+                && entry.state.compareAndSet(State.COUNTING, State.RENDERING)) {
+            executor.execute(() -> render(entry));
+        }
+        return null;
+    }
+
+    private void failed(String key) {
+        final var entry = byKey.get(key);
+        if (entry != null) {
+            log.warn("Playing prompt {} failed, speaking [{}] until it's checked", key, entry.speech.text());
+            check(entry);
+        }
+    }
+
+    /**
+     * Speak the text while making sure the prompt is still in the bucket, rendering it again when it's gone.
+     */
+    private void check(Entry entry) {
+        if (entry.state.compareAndSet(State.READY, State.RENDERING)) {
+            executor.execute(() -> render(entry));
+        }
+    }
+
+    private boolean settled(String text, VoiceId voiceId, Engine engine, Locale locale) {
+        if (renderer == null || text == null || voiceId == null || engine == null || locale == null) {
+            return true;
+        }
+        final var entry = entries.get(new Speech(text, voiceId, engine, locale));
+        if (entry == null) {
+            return false;
+        }
+        return entry.state.get() == State.FAILED;
+    }
+
+    private void render(Entry entry) {
+        final var speech = entry.speech;
+        final var key = entry.audioSource.getKey();
+        try {
+            renderer.render(bucket, key, speech.text(), speech.voiceId(), speech.engine(), speech.locale());
+            entry.checkedAt = System.nanoTime();
+            entry.state.set(State.READY);
+            log.debug("Speech [{}] will be played from {}", speech::text, () -> key);
+        } catch (Exception e) {
+            // Keep speaking it, no reason to expect a retry to do any better
+            log.error("Could not render speech [{}], it will stay a Speak", speech.text(), e);
+            entry.state.set(State.FAILED);
+        }
+    }
+
+    /**
+     * Content addressed key for the speech, so every container and Flow version finds the same prompt.
+     */
+    private static String key(Speech speech) {
+        try {
+            final var md = MessageDigest.getInstance("SHA-256");
+            for (var part : List.of(VERSION, speech.text(), speech.voiceId().toString(), speech.engine().toString(), speech.locale().toLanguageTag())) {
+                md.update(part.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            return SpeakAction.RENDERED_PROMPT_PREFIX + HexFormat.of().formatHex(md.digest()) + ".wav";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static SpeechPrompts fromEnv() {
+        if (!Boolean.parseBoolean(System.getenv(ENABLE_ENV))) {
+            return new SpeechPrompts(null, null, 0, Duration.ZERO);
+        }
+        final var bucket = System.getenv("PROMPT_BUCKET");
+        if (bucket == null || bucket.isBlank()) {
+            log.error("{} requires PROMPT_BUCKET, Speak Actions will not be converted", ENABLE_ENV);
+            return new SpeechPrompts(null, null, 0, Duration.ZERO);
+        }
+
+        final var after = envInt(AFTER_ENV, 3);
+        final var check = Duration.ofMinutes(envInt(CHECK_ENV, 10));
+
+        try {
+            return new SpeechPrompts(new PollySpeechRenderer(), bucket, after, check);
+        } catch (NoClassDefFoundError e) {
+            log.error("{} requires the Polly and S3 SDK's on the classpath, Speak Actions will not be converted", ENABLE_ENV);
+            return new SpeechPrompts(null, null, 0, Duration.ZERO);
+        }
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        final var value = System.getenv(name);
+        if (value != null && !value.isBlank()) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.error("{} is not a number, using {}", name, defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -6,14 +6,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import lombok.Builder;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class StartBotConversationAction extends Action<StartBotConversationAction, ActionDataStartBotConversation> {
 
@@ -37,6 +41,8 @@ public class StartBotConversationAction extends Action<StartBotConversationActio
 
         String myContent = getFuncValOrDefault(contentF, content);
 
+        // Never change the field, this Action is shared by every call
+        var myDialogActionType = dialogActionType;
         WelcomeMessage welcome = null;
         if (myContent != null) {
             welcome = ResponseStartBotConversation.WelcomeMessage.builder()
@@ -44,12 +50,12 @@ public class StartBotConversationAction extends Action<StartBotConversationActio
                     .withContentType(getBotContentType(myContent))
                     .build();
             // When a welcome message is set, Dialog Action must be set to IllicitIntent
-            dialogActionType = DialogActionType.ElicitIntent;
+            myDialogActionType = DialogActionType.ElicitIntent;
         }
 
         DialogAction da = null;
-        if (dialogActionType != null) {
-            da = DialogAction.builder().withType(dialogActionType).build();
+        if (myDialogActionType != null) {
+            da = DialogAction.builder().withType(myDialogActionType).build();
         }
 
         SessionState ss = null;
@@ -92,8 +98,9 @@ public class StartBotConversationAction extends Action<StartBotConversationActio
 
     @Override
     protected void onActionSuccessful() {
-        log.debug("Lex Bot has finished and Intent is " + getIntentName());
-        setTransactionAttribute("LexLastMatchedIntent", getIntentName());
+        final var intentName = getIntentName();
+        log.debug("Lex Bot has finished and Intent is {}", intentName);
+        setTransactionAttribute("LexLastMatchedIntent", intentName);
     }
 
     @Override
@@ -104,8 +111,9 @@ public class StartBotConversationAction extends Action<StartBotConversationActio
             sb.append(" da=[").append(getDialogActionType()).append(']');
         }
 
-        if (getFuncValOrDefault(contentF, content) != null) {
-            sb.append(" content=[").append(getFuncValOrDefault(contentF, content)).append(']');
+        final var myContent = getFuncValOrDefault(contentF, content);
+        if (myContent != null) {
+            sb.append(" content=[").append(myContent).append(']');
         }
 
         return sb;
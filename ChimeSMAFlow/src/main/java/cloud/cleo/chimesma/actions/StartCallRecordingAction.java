@@ -3,14 +3,18 @@ package cloud.cleo.chimesma.actions;
 import cloud.cleo.chimesma.model.*;
 import cloud.cleo.chimesma.model.ResponseStartCallRecording.Track;
 import lombok.Builder;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 /**
  *
  * @author sjensen
  */
-@Data
+@Getter
+@Setter
+@ToString
 @SuperBuilder(setterPrefix = "with")
 public class StartCallRecordingAction extends Action<StartCallRecordingAction, ResponseStartCallRecording> {
 
@@ -0,0 +1,261 @@
+package cloud.cleo.chimesma.actions;
+
+import static cloud.cleo.chimesma.actions.AbstractFlow.CURRENT_ACTION_ID;
+import static cloud.cleo.chimesma.actions.AbstractFlow.CURRENT_ACTION_ID_LIST;
+import static cloud.cleo.chimesma.actions.AbstractFlow.STORED_STATE_VERSION;
+import static cloud.cleo.chimesma.actions.ReceiveDigitsAction.RECEIVE_DIGITS_ID;
+import static cloud.cleo.chimesma.actions.RecordAudioAction.RECORD_AUDIO_BUCKET;
+import static cloud.cleo.chimesma.actions.RecordAudioAction.RECORD_AUDIO_KEY;
+import static cloud.cleo.chimesma.actions.RecordAudioAction.RECORD_AUDIO_TERMINATOR;
+import static cloud.cleo.chimesma.actions.StartCallRecordingAction.RECORDING_FILE_LOCATION;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Compact wire form of the Transaction Attributes, which SMA limits to 100 keys and 20 KB.
+ *
+ * The keys the engine manages are sent with short names and Action ID's are packed in base 36. When enabled, all the
+ * Flow's own attributes are compressed into a single value once they pass a size. Flows and Actions only ever see the
+ * decoded attributes, and attributes in the long form (like calls that started before an upgrade) decode as is.
+ *
+ * Keys starting with an underscore followed by a single character are reserved for the engine.
+ *
+ * @author sjensen
+ */
+public final class TransactionAttributeCodec {
+
+    private final static Logger log = LogManager.getLogger(TransactionAttributeCodec.class);
+
+    /**
+     * When set, the Flow's attributes are compressed once their JSON is larger than this many bytes
+     */
+    public final static String COMPRESS_OVER_ENV = "TRANSACTION_ATTRIBUTES_COMPRESS_OVER";
+
+    // Engine keys and what is sent to SMA in their place
+    private final static Map<String, String> SHORT_KEYS = Map.ofEntries(
+            Map.entry(CURRENT_ACTION_ID, "_a"),
+            Map.entry(CURRENT_ACTION_ID_LIST, "_l"),
+            Map.entry(RECEIVE_DIGITS_ID, "_r"),
+            Map.entry(STORED_STATE_VERSION, "_v"),
+            Map.entry("locale", "_L"),
+            Map.entry("Disconnect", "_D"),
+            Map.entry("LastReceivedDigits", "_d"),
+            Map.entry("LexLastMatchedIntent", "_i"),
+            Map.entry(RECORD_AUDIO_BUCKET, "_b"),
+            Map.entry(RECORD_AUDIO_KEY, "_k"),
+            Map.entry(RECORD_AUDIO_TERMINATOR, "_t"),
+            Map.entry(RECORDING_FILE_LOCATION, "_f"));
+
+    private final static Map<String, String> LONG_KEYS = SHORT_KEYS.entrySet().stream()
+            .collect(Collectors.toUnmodifiableMap(Map.Entry::getValue, Map.Entry::getKey));
+
+    // Engine keys that hold a comma separated list of Action ID's
+    private final static Set<String> ID_KEYS = Set.of(CURRENT_ACTION_ID, CURRENT_ACTION_ID_LIST, RECEIVE_DIGITS_ID);
+
+    // Compressed Flow attributes
+    private final static String BLOB_KEY = "_z";
+
+    private final static int RADIX = Character.MAX_RADIX;
+
+    private final static TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private final ObjectMapper mapper;
+
+    // Compress the Flow attributes when their JSON is larger than this, 0 never compresses
+    private final int compressOver;
+
+    /**
+     * Codec that compresses based on the {@value #COMPRESS_OVER_ENV} environment variable.
+     *
+     * @param mapper
+     */
+    public TransactionAttributeCodec(ObjectMapper mapper) {
+        this(mapper, compressOverFromEnv());
+    }
+
+    /**
+     * @param mapper used for the compressed attributes
+     * @param compressOver compress Flow attributes whose JSON is larger than this many bytes, 0 to never compress
+     */
+    public TransactionAttributeCodec(ObjectMapper mapper, int compressOver) {
+        this.mapper = mapper;
+        this.compressOver = compressOver;
+    }
+
+    /**
+     * Convert attributes to what is sent to SMA.
+     *
+     * @param attrs attributes as the Flow sees them
+     * @return compact attributes, null when attrs is null
+     */
+    public Map<String, Object> encode(Map<String, Object> attrs) {
+        if (attrs == null) {
+            return null;
+        }
+        final var out = new LinkedHashMap<String, Object>();
+        final var flowAttrs = new LinkedHashMap<String, Object>();
+        for (var entry : attrs.entrySet()) {
+            final var shortKey = SHORT_KEYS.get(entry.getKey());
+            if (shortKey == null) {
+                flowAttrs.put(entry.getKey(), entry.getValue());
+            } else if (ID_KEYS.contains(entry.getKey())) {
+                final var packed = packIds(entry.getValue());
+                // Anything that isn't a list of ID's goes out as is
+                out.put(packed != null ? shortKey : entry.getKey(), packed != null ? packed : entry.getValue());
+            } else {
+                out.put(shortKey, entry.getValue());
+            }
+        }
+
+        if (compressOver > 0 && !flowAttrs.isEmpty()) {
+            try {
+                final var json = mapper.writeValueAsBytes(flowAttrs);
+                if (json.length > compressOver) {
+                    out.put(BLOB_KEY, compress(json));
+                    return out;
+                }
+            } catch (IOException e) {
+                log.error("Could not compress Transaction Attributes, sending as is", e);
+            }
+        }
+        out.putAll(flowAttrs);
+        return out;
+    }
+
+    /**
+     * Convert attributes received from SMA to what the Flow sees.
+     *
+     * @param attrs attributes from the event, may be null
+     * @return mutable decoded attributes
+     */
+    public Map<String, Object> decode(Map<String, Object> attrs) {
+        if (attrs == null) {
+            return new HashMap<>();
+        }
+        final var out = new HashMap<String, Object>(Math.max(16, attrs.size() * 2));
+        for (var entry : attrs.entrySet()) {
+            final var key = entry.getKey();
+            if (BLOB_KEY.equals(key) && entry.getValue() instanceof String blob) {
+                try {
+                    out.putAll(decompress(blob));
+                } catch (IOException | IllegalArgumentException e) {
+                    log.error("Could not decompress Transaction Attributes", e);
+                    out.put(key, blob);
+                }
+                continue;
+            }
+            final var longKey = LONG_KEYS.get(key);
+            if (longKey == null) {
+                out.put(key, entry.getValue());
+            } else if (ID_KEYS.contains(longKey)) {
+                out.put(longKey, unpackIds(entry.getValue()));
+            } else {
+                out.put(longKey, entry.getValue());
+            }
+        }
+        return out;
+    }
+
+    /**
+     * "12,13,14" becomes "c,d,e"
+     *
+     * @return packed ID's or null if the value is not a list of ID's
+     */
+    private static String packIds(Object value) {
+        if (!(value instanceof String ids) || ids.isEmpty()) {
+            return null;
+        }
+        final var sb = new StringBuilder(ids.length());
+        int start = 0;
+        try {
+            while (start <= ids.length()) {
+                int end = ids.indexOf(',', start);
+                if (end < 0) {
+                    end = ids.length();
+                }
+                if (start > 0) {
+                    sb.append(',');
+                }
+                sb.append(Integer.toString(Integer.parseInt(ids, start, end, 10), RADIX));
+                start = end + 1;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return sb.toString();
+    }
+
+    private static Object unpackIds(Object value) {
+        if (!(value instanceof String ids) || ids.isEmpty()) {
+            return value;
+        }
+        final var sb = new StringBuilder(ids.length() * 2);
+        int start = 0;
+        try {
+            while (start <= ids.length()) {
+                int end = ids.indexOf(',', start);
+                if (end < 0) {
+                    end = ids.length();
+                }
+                if (start > 0) {
+                    sb.append(',');
+                }
+                sb.append(Integer.parseInt(ids, start, end, RADIX));
+                start = end + 1;
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Action ID's [{}] are not packed, using as is", ids);
+            return value;
+        }
+        return sb.toString();
+    }
+
+    private static String compress(byte[] json) throws IOException {
+        final var bytes = new ByteArrayOutputStream(json.length / 2);
+        final var deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try (var out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(json);
+        } finally {
+            deflater.end();
+        }
+        return Base64.getEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    private Map<String, Object> decompress(String blob) throws IOException {
+        final var inflater = new Inflater(true);
+        try (var in = new InflaterInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(blob)), inflater)) {
+            return mapper.readValue(in, MAP_TYPE);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int compressOverFromEnv() {
+        final var value = System.getenv(COMPRESS_OVER_ENV);
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.error("{} must be a number of bytes, compression is disabled", COMPRESS_OVER_ENV);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package cloud.cleo.chimesma.actions;
+
+import static cloud.cleo.chimesma.actions.AbstractFlow.CURRENT_ACTION_ID;
+import static cloud.cleo.chimesma.actions.AbstractFlow.CURRENT_ACTION_ID_LIST;
+import static cloud.cleo.chimesma.actions.AbstractFlow.STORED_STATE_VERSION;
+import static cloud.cleo.chimesma.actions.ReceiveDigitsAction.RECEIVE_DIGITS_ID;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Attributes must come back from SMA exactly as the Flow set them, whether sent compact, compressed or in the long form.
+ *
+ * @author sjensen
+ */
+public class TransactionAttributeCodecTest {
+
+    private final static ObjectMapper mapper = new ObjectMapper();
+
+    private final static TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private final static TransactionAttributeCodec codec = new TransactionAttributeCodec(mapper, 0);
+
+    @Test
+    public void roundTrip() throws IOException {
+        final var attrs = attributes();
+
+        assertEquals(attrs, viaSMA(codec, attrs));
+    }
+
+    @Test
+    public void engineKeysAreSentShort() {
+        final var encoded = codec.encode(attributes());
+
+        assertEquals("f", encoded.get("_a"));
+        assertEquals("c,d,e", encoded.get("_l"));
+        assertEquals("z,10", encoded.get("_r"));
+        assertEquals(2, encoded.get("_v"));
+        assertEquals("en-US", encoded.get("_L"));
+        // Flow attributes are sent as they are
+        assertEquals("Bob", encoded.get("name"));
+        assertFalse(encoded.containsKey(CURRENT_ACTION_ID));
+        assertFalse(encoded.containsKey("locale"));
+    }
+
+    @Test
+    public void longFormDecodesAsIs() throws IOException {
+        // Attributes from a call that started before the compact form
+        final var attrs = attributes();
+
+        assertEquals(attrs, codec.decode(mapper.readValue(mapper.writeValueAsBytes(attrs), MAP_TYPE)));
+    }
+
+    @Test
+    public void idsThatAreNotIdsAreSentAsIs() throws IOException {
+        final var attrs = new HashMap<String, Object>();
+        attrs.put(CURRENT_ACTION_ID, "not an id");
+        attrs.put(CURRENT_ACTION_ID_LIST, "");
+
+        final var encoded = codec.encode(attrs);
+
+        assertEquals("not an id", encoded.get(CURRENT_ACTION_ID));
+        assertEquals(attrs, viaSMA(codec, attrs));
+    }
+
+    @Test
+    public void largeFlowAttributesAreCompressed() throws IOException {
+        final var compressing = new TransactionAttributeCodec(mapper, 256);
+        final var attrs = attributes();
+        attrs.put("history", "menu,".repeat(200));
+
+        final var encoded = compressing.encode(attrs);
+
+        assertTrue(encoded.containsKey("_z"));
+        assertFalse(encoded.containsKey("name"));
+        assertFalse(encoded.containsKey("history"));
+        // Engine keys stay outside so they can be read without inflating
+        assertEquals("f", encoded.get("_a"));
+        assertTrue(mapper.writeValueAsBytes(encoded).length < mapper.writeValueAsBytes(attrs).length / 4);
+        assertEquals(attrs, viaSMA(compressing, attrs));
+    }
+
+    @Test
+    public void smallFlowAttributesAreNotCompressed() {
+        final var encoded = new TransactionAttributeCodec(mapper, 4096).encode(attributes());
+
+        assertFalse(encoded.containsKey("_z"));
+        assertEquals("Bob", encoded.get("name"));
+    }
+
+    @Test
+    public void brokenBlobIsKept() {
+        final var decoded = codec.decode(Map.of("_z", "not compressed", "_a", "f"));
+
+        assertEquals("not compressed", decoded.get("_z"));
+        assertEquals("15", decoded.get(CURRENT_ACTION_ID));
+    }
+
+    @Test
+    public void missingAttributes() {
+        assertNull(codec.encode(null));
+
+        final var decoded = codec.decode(null);
+        assertTrue(decoded.isEmpty());
+        // The Flow adds to what it gets back
+        decoded.put("name", "Bob");
+    }
+
+    /**
+     * Attributes with the engine keys and some set by a Flow.
+     */
+    private static Map<String, Object> attributes() {
+        final var attrs = new HashMap<String, Object>();
+        attrs.put(CURRENT_ACTION_ID, "15");
+        attrs.put(CURRENT_ACTION_ID_LIST, "12,13,14");
+        attrs.put(RECEIVE_DIGITS_ID, "35,36");
+        attrs.put(STORED_STATE_VERSION, 2);
+        attrs.put("locale", "en-US");
+        attrs.put("name", "Bob");
+        attrs.put("count", 7);
+        attrs.put("items", List.of("a", "b"));
+        return attrs;
+    }
+
+    /**
+     * Encode, send as JSON and decode what comes back like the Flow does.
+     */
+    private static Map<String, Object> viaSMA(TransactionAttributeCodec codec, Map<String, Object> attrs) throws IOException {
+        final var json = mapper.writeValueAsBytes(codec.encode(attrs));
+        return codec.decode(mapper.readValue(json, MAP_TYPE));
+    }
+}
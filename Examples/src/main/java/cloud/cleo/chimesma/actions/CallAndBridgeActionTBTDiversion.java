@@ -3,24 +3,33 @@ package cloud.cleo.chimesma.actions;
 import static cloud.cleo.chimesma.actions.Action.log;
 import static cloud.cleo.chimesma.model.ParticipantTag.LEG_B;
 import cloud.cleo.chimesma.model.ResponseAction;
+import cloud.cleo.chimesma.model.ResponseCallAndBridge;
 import cloud.cleo.chimesma.model.ResponseHangup;
 import cloud.cleo.chimesma.model.SMARequest;
 import static cloud.cleo.chimesma.model.SMARequest.SMAEventType.ACTION_SUCCESSFUL;
-import java.text.DecimalFormat;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Random;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.experimental.SuperBuilder;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Expression;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
 import software.amazon.awssdk.enhanced.dynamodb.extensions.AutoGeneratedTimestampRecordExtension;
 import software.amazon.awssdk.enhanced.dynamodb.extensions.annotations.DynamoDbAutoGeneratedTimestampAttribute;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.model.PutItemEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 
 /**
  * Special Call And Bridge Action that generates a key and stores SMA call info in Dynamo Table When the call is
@@ -42,19 +51,85 @@ public class CallAndBridgeActionTBTDiversion extends CallAndBridgeAction {
 
     private final static DynamoDbTable<SMACall> calls = enhancedClient.table(System.getenv("CALLS_TABLE_NAME"), schema);
 
+    // Callers hear dead air while we wait, so never hold up the transfer longer than this
+    private final static Duration PUT_DEADLINE = Duration.ofMillis(750);
+
+    // NANP numbers from a pool of reserved prefixes, see TransferKeyAllocator
+    private final static TransferKeyAllocator keys = TransferKeyAllocator.getDefault();
+
+    // Tries to find a key not in use by another call
+    private final static int MAX_KEY_ATTEMPTS = 3;
+
+    // Key must not be in use by another call
+    private final static Expression KEY_NOT_IN_USE = Expression.builder().expression("attribute_not_exists(phoneNumber)").build();
+
+    // Table writes run here while the response is being built
+    private final static ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
     /**
-     * Before a response is generated and sent back, we need to write call information to a Dynamo Table which can later
-     * be used by a Lambda in Connect to signal a call transfer. The key for the record is a random PSTN number and is
-     * populated in the Diversion Header as part of the Action
+     * Before a response is sent back, we need to write call information to a Dynamo Table which can later be used by a
+     * Lambda in Connect to signal a call transfer. The key for the record is an E164 shaped number from the
+     * TransferKeyAllocator and is populated in the Diversion Header as part of the Action.
+     *
+     * The write is started first and runs while the response is built, then we wait for it (and any retries with
+     * another key) at most PUT_DEADLINE in total. A key is only sent once its write succeeded, otherwise the call is
+     * bridged without a Diversion header and can't be taken back.
      *
      * @return
      */
     @Override
     protected ResponseAction getResponse() {
-        final var phoneNumKey = generateRandomPhoneNumber();
         final var cd = getEvent().getCallDetails();
+        final var deadline = System.nanoTime() + PUT_DEADLINE.toNanos();
+
+        var phoneNumKey = keys.next();
+        var put = putCall(phoneNumKey, cd);
+
+        final var response = (ResponseCallAndBridge) super.getResponse();
 
-        // Write a Dynamo record to a global call table
+        // Stays null when the call couldn't be stored, Connect would find nothing (or another call) under a key
+        String diversionKey = null;
+        for (int attempt = 1;; attempt++) {
+            try {
+                put.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                diversionKey = phoneNumKey;
+                break;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ConditionalCheckFailedException && attempt < MAX_KEY_ATTEMPTS
+                        && System.nanoTime() < deadline) {
+                    log.warn("Phone key {} is in use by another call, trying another", phoneNumKey);
+                    keys.collided();
+                    phoneNumKey = keys.next();
+                    put = putCall(phoneNumKey, cd);
+                } else {
+                    log.error("Could not store call for transfer, sending no Diversion header", e.getCause());
+                    break;
+                }
+            } catch (TimeoutException e) {
+                // Lambda freezes once the response is returned, so there is no telling when (or if) the write lands
+                log.error("Storing call for transfer took longer than {}, sending no Diversion header", PUT_DEADLINE);
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (diversionKey != null) {
+            // Place Info about this SMA into the Diversion Header, the Action's headers are shared by all calls so copy them
+            final var params = response.getParameters();
+            final var headers = params.getSipHeaders() != null ? new HashMap<>(params.getSipHeaders()) : new HashMap<String, String>();
+            headers.put("Diversion", "sip:" + diversionKey + "@0.0.0.0");
+            params.setSipHeaders(headers);
+        }
+
+        return response;
+    }
+
+    /**
+     * Write a Dynamo record to a global call table, failing if the key is already used by another call.
+     */
+    private static CompletableFuture<Void> putCall(String phoneNumKey, SMARequest.CallDetails cd) {
         final var call = new SMACall();
         call.setPhoneNumber(phoneNumKey);
         call.setSipMediaApplicationId(cd.getSipMediaApplicationId());
@@ -63,12 +138,22 @@ public class CallAndBridgeActionTBTDiversion extends CallAndBridgeAction {
 
         // Set the TTL so this entry is removed to we don't ever clash
         call.setTtl(Instant.now().plus(Duration.ofDays(1)).getEpochSecond());
-        calls.putItem(call);
 
-        // Place Info about this SMA into the Diversion Header
-        getSipHeaders().put("Diversion", "sip:" + phoneNumKey + "@0.0.0.0");
+        return CompletableFuture.runAsync(() -> calls.putItem(PutItemEnhancedRequest.builder(SMACall.class)
+                .item(call)
+                .conditionExpression(KEY_NOT_IN_USE)
+                .build()), executor);
+    }
 
-        return super.getResponse();
+    /**
+     * Once a transfer has been requested, dial the transfer number instead of the configured URI.
+     *
+     * @return the URI for the endpoint
+     */
+    @Override
+    protected String getDestinationUri() {
+        final var transferNumber = (String) getTransactionAttribute("transferNumber");
+        return transferNumber != null ? transferNumber : super.getDestinationUri();
     }
 
     @Override
@@ -82,8 +167,7 @@ public class CallAndBridgeActionTBTDiversion extends CallAndBridgeAction {
                             // Received SUCCESS on Hanging Up leg B, so we know we did this and it's a TBT
                             if (((ResponseHangup) ad).getParameters().getParticipantTag().equals(LEG_B)) {
                                 log.debug("CallAndBridgeTBTDiversion Diconnect on leg B associated with Disconnect and Transfer");
-                                // set the transfer and return myself to Call And Bridge to the new destination
-                                setUri((String) getTransactionAttribute("transferNumber"));
+                                // return myself to Call And Bridge to the new destination (see getDestinationUri)
                                 return this;
                             }
                         }
@@ -148,19 +232,6 @@ public class CallAndBridgeActionTBTDiversion extends CallAndBridgeAction {
         }
     }
 
-    /**
-     * Generate a random phone number that conforms to E164 to use as a key
-     *
-     * @return
-     */
-    private static String generateRandomPhoneNumber() {
-        final var rand = new Random();
-        DecimalFormat df = new DecimalFormat("+16122000000");
-        // This generates a random number between 0 (inclusive) and 1000000000 (exclusive), ensuring 9 digits.
-        int randomNumber = rand.nextInt(1000000);
-        return df.format(randomNumber);
-    }
-
     /**
      * Example Lambda Code that Connect would use to execute the transfer
      */
@@ -0,0 +1,131 @@
+package cloud.cleo.chimesma.actions;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates the E.164 numbers used as keys to find a call when it comes back from Connect for a take back and
+ * transfer.
+ *
+ * Keys are NANP numbers, "+1" and 10 digits, taken from a pool of reserved prefixes that each hold a million numbers:
+ * <pre>
+ *   +1 6122 NNNNNN
+ *      |    sequence within the prefix
+ *      prefix ("+16122" like the original random key)
+ * </pre>
+ *
+ * Each allocator (container) walks the whole pool in sequence from a random starting point, so it never hands out the
+ * same key twice until it has gone around the pool. Containers don't coordinate, so the conditional write on the calls
+ * table is what catches a key that is still in use by another call, and {@link #collided()} moves the allocator to
+ * another part of the pool before trying again. Keys repeat once the pool wraps around and across containers, that is
+ * only safe because the calls table TTL removes a call's item after a day, until then the write refuses its key.
+ *
+ * The pool is set with TRANSFER_KEY_PREFIXES, a comma separated list of prefixes like "+16122,+16123", add prefixes
+ * when more than a few hundred thousand transfers a day are expected.
+ *
+ * @author sjensen
+ */
+public final class TransferKeyAllocator {
+
+    private final static String PREFIXES_ENV = "TRANSFER_KEY_PREFIXES";
+
+    // Where keys came from before the allocator
+    private final static String DEFAULT_PREFIX = "+16122";
+
+    // Numbers in each prefix, the 6 digits that follow it
+    private final static int PREFIX_SIZE = 1_000_000;
+
+    // Length of "+1" and the 10 digits
+    private final static int KEY_LENGTH = 12;
+
+    // Before DEFAULT, which needs it to pick its starting point
+    private final static SecureRandom random = new SecureRandom();
+
+    private final static TransferKeyAllocator DEFAULT = new TransferKeyAllocator(prefixesFromEnv());
+
+    private final char[][] prefixes;
+    private final long poolSize;
+    private final AtomicLong sequence;
+
+    /**
+     * Allocator over the default pool starting at a random point.
+     */
+    public TransferKeyAllocator() {
+        this(List.of(DEFAULT_PREFIX));
+    }
+
+    /**
+     * Allocator starting at a random point in the pool.
+     *
+     * @param prefixes "+1" and 4 digits each
+     */
+    public TransferKeyAllocator(List<String> prefixes) {
+        this(prefixes, random.nextLong((long) prefixes.size() * PREFIX_SIZE));
+    }
+
+    /**
+     * @param prefixes "+1" and 4 digits each
+     * @param start where the sequence starts, 0 up to a million times the number of prefixes
+     */
+    public TransferKeyAllocator(List<String> prefixes, long start) {
+        if (prefixes.isEmpty()) {
+            throw new IllegalArgumentException("At least one prefix is required");
+        }
+        this.prefixes = new char[prefixes.size()][];
+        for (int i = 0; i < prefixes.size(); i++) {
+            final var prefix = prefixes.get(i);
+            if (!prefix.matches("\\+1\\d{4}")) {
+                throw new IllegalArgumentException("Prefix must be +1 and 4 digits, not " + prefix);
+            }
+            this.prefixes[i] = prefix.toCharArray();
+        }
+        this.poolSize = (long) prefixes.size() * PREFIX_SIZE;
+        if (start < 0 || start >= poolSize) {
+            throw new IllegalArgumentException("start must be between 0 and " + (poolSize - 1));
+        }
+        this.sequence = new AtomicLong(start);
+    }
+
+    /**
+     * The allocator for this container.
+     *
+     * @return shared allocator
+     */
+    public static TransferKeyAllocator getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Allocate the next key.
+     *
+     * @return key like +16122345678
+     */
+    public String next() {
+        final var n = Math.floorMod(sequence.getAndIncrement(), poolSize);
+        final var chars = Arrays.copyOf(prefixes[(int) (n / PREFIX_SIZE)], KEY_LENGTH);
+        int value = (int) (n % PREFIX_SIZE);
+        for (int i = KEY_LENGTH - 1; i >= KEY_LENGTH - 6; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * A key was found in use, so another container is likely allocating from the same part of the pool. Move to a
+     * random point instead of running into its keys one after another.
+     */
+    public void collided() {
+        sequence.set(random.nextLong(poolSize));
+    }
+
+    private static List<String> prefixesFromEnv() {
+        final var value = System.getenv(PREFIXES_ENV);
+        if (value == null || value.isBlank()) {
+            return List.of(DEFAULT_PREFIX);
+        }
+        return Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+    }
+}
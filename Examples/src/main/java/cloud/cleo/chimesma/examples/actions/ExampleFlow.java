@@ -258,7 +258,7 @@ public class ExampleFlow extends AbstractFlow {
                     attrs.put("transferNumber", phoneNumber);
 
                     log.info("Returning action to Disconnect LEG-B of the call");
-                    ACTION_HANGUP_LEG_B.setTransactionAttributes(attrs);  // This is a special case where we need to pass thru attributes
+                    // attrs belong to this call, so the shared Hangup Action carries them without being touched
                     return ACTION_HANGUP_LEG_B;
                 }
             }
@@ -0,0 +1,110 @@
+package cloud.cleo.chimesma.actions;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Keys must be valid NANP numbers from the pool and never repeat until the pool wraps around.
+ *
+ * @author sjensen
+ */
+public class TransferKeyAllocatorTest {
+
+    private final static String NANP = "\\+1\\d{10}";
+
+    @Test
+    public void keysAreNanpNumbersInThePool() {
+        final var prefixes = List.of("+16122", "+16123");
+        final var keys = new TransferKeyAllocator(prefixes);
+
+        for (int i = 0; i < 10_000; i++) {
+            final var key = keys.next();
+            assertTrue(key.matches(NANP), key);
+            assertTrue(prefixes.contains(key.substring(0, 6)), key);
+        }
+        assertTrue(TransferKeyAllocator.getDefault().next().matches(NANP));
+    }
+
+    @Test
+    public void sequenceWithinPrefix() {
+        final var keys = new TransferKeyAllocator(List.of("+16122"), 0);
+
+        assertEquals("+16122000000", keys.next());
+        assertEquals("+16122000001", keys.next());
+    }
+
+    @Test
+    public void movesToNextPrefixAndWraps() {
+        final var keys = new TransferKeyAllocator(List.of("+16122", "+16123"), 999_999);
+
+        assertEquals("+16122999999", keys.next());
+        assertEquals("+16123000000", keys.next());
+
+        final var last = new TransferKeyAllocator(List.of("+16122", "+16123"), 1_999_999);
+        assertEquals("+16123999999", last.next());
+        assertEquals("+16122000000", last.next());
+    }
+
+    @Test
+    public void uniqueUntilThePoolWraps() {
+        final var keys = new TransferKeyAllocator(List.of("+16122"));
+        final var seen = new HashSet<String>(2_000_000);
+
+        for (int i = 0; i < 1_000_000; i++) {
+            assertTrue(seen.add(keys.next()));
+        }
+        // Every number in the prefix was handed out once
+        assertFalse(seen.add(keys.next()));
+    }
+
+    @Test
+    public void uniqueAcrossThreads() throws InterruptedException {
+        final var keys = new TransferKeyAllocator(List.of("+16122"));
+        final Set<String> seen = ConcurrentHashMap.newKeySet();
+        final var threads = new ArrayList<Thread>();
+        final var start = new CountDownLatch(1);
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 10_000; i++) {
+                    seen.add(keys.next());
+                }
+            }));
+        }
+        start.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80_000, seen.size());
+    }
+
+    @Test
+    public void collidedStaysInThePool() {
+        final var keys = new TransferKeyAllocator(List.of("+16122"), 0);
+        keys.next();
+
+        keys.collided();
+
+        assertTrue(keys.next().startsWith("+16122"));
+    }
+
+    @Test
+    public void invalidPools() {
+        assertThrows(IllegalArgumentException.class, () -> new TransferKeyAllocator(List.of()));
+        assertThrows(IllegalArgumentException.class, () -> new TransferKeyAllocator(List.of("+1612")));
+        assertThrows(IllegalArgumentException.class, () -> new TransferKeyAllocator(List.of("+4420")));
+        assertThrows(IllegalArgumentException.class, () -> new TransferKeyAllocator(List.of("+16122"), 1_000_000));
+        assertThrows(IllegalArgumentException.class, () -> new TransferKeyAllocator(List.of("+16122"), -1));
+    }
+}
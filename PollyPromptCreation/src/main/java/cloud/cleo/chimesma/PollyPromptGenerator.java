@@ -1,19 +1,18 @@
 
 package cloud.cleo.chimesma;
 
+import cloud.cleo.chimesma.audio.WavWriter;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.CloudFormationCustomResourceEvent;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.Executors;
-import java.util.function.Consumer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
@@ -28,7 +27,11 @@ import software.amazon.awssdk.services.polly.model.SynthesizeSpeechRequest;
 import software.amazon.awssdk.services.polly.model.TextType;
 import software.amazon.awssdk.services.polly.model.VoiceId;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.lambda.powertools.cloudformation.AbstractCustomResourceHandler;
 import software.amazon.lambda.powertools.cloudformation.Response;
@@ -38,6 +41,8 @@ import software.amazon.lambda.powertools.cloudformation.Response;
  * changes. Ultimately, anything created is deleted so prompt buckets can be deleted as well.
  * Usage in CF:
  *
+ * A single resource can also create a list of prompts, see {@link PromptBatch}.
+ *
  * @author sjensen
  */
 public class PollyPromptGenerator extends AbstractCustomResourceHandler {
@@ -46,13 +51,13 @@ public class PollyPromptGenerator extends AbstractCustomResourceHandler {
     Logger log = LogManager.getLogger(PollyPromptGenerator.class);
 
     // The filename for the prompt
-    private final static String NAME_INPUT = "PromptName";
+    final static String NAME_INPUT = "PromptName";
     // The text to generate the prompt
-    private final static String TEXT_INPUT = "PromptText";
+    final static String TEXT_INPUT = "PromptText";
     // The Polly VoicedId to use (Optional and defaults to Joanna if not provided)
-    private final static String VOICEID_INPUT = "VoiceId";
+    final static String VOICEID_INPUT = "VoiceId";
     // The Engine to use (Optional defaults to neural is not provided)
-    private final static String ENGINE_INPUT = "Engine";
+    final static String ENGINE_INPUT = "Engine";
 
     // The default voice to use if not provided
     private final static VoiceId DEFAULT_VOICE = VoiceId.JOANNA;
@@ -76,13 +81,27 @@ public class PollyPromptGenerator extends AbstractCustomResourceHandler {
      * Bucket passed from ENV, this makes sure CF provisions the bucket before creating this Lambda and calling the
      * Custom resources.
      */
-    private final static String BUCKET_NAME = System.getenv("PROMPT_BUCKET");
+    final static String BUCKET_NAME = System.getenv("PROMPT_BUCKET");
+
+    // Metadata on each prompt with the logical ID of the resource that wrote it
+    private final static String OWNER_METADATA = "prompt-resource";
+
+    // Rendered audio by content hash, so the same prompt is never sent to Polly twice
+    final static String CACHE_PREFIX = "cache/";
+    private final static String CACHE_VERSION = "1";
+
+    // Handles resources with a list of prompts
+    private final PromptBatch batch = new PromptBatch(this);
 
     @Override
     protected Response create(CloudFormationCustomResourceEvent cfcre, Context cntxt) {
         log.debug("Received CREATE Event from Cloudformation");
         log.debug(cfcre);
 
+        if (PromptBatch.isBatch(cfcre.getResourceProperties())) {
+            return batch.create(cfcre);
+        }
+
         try {
             final var name = cfcre.getResourceProperties().getOrDefault(NAME_INPUT,"").toString();
             final var text = cfcre.getResourceProperties().getOrDefault(TEXT_INPUT,"").toString();
@@ -99,7 +118,7 @@ public class PollyPromptGenerator extends AbstractCustomResourceHandler {
                 return Response.failed(UUID.randomUUID().toString());
             }
 
-            createPrompt(name, text, validateVoiceId(voice_id), validateEngine(engine));
+            createPrompt(name, text, validateVoiceId(voice_id), validateEngine(engine), cfcre.getLogicalResourceId());
             return Response.success(BUCKET_NAME + "/" + name);
         } catch (Exception e) {
             log.error("Could Not create the prompt", e);
@@ -118,6 +137,10 @@ public class PollyPromptGenerator extends AbstractCustomResourceHandler {
     protected Response update(final CloudFormationCustomResourceEvent cfcre, final Context cntxt) {
         log.debug("Received UPDATE Event from Cloudformation", cfcre);
 
+        if (PromptBatch.isBatch(cfcre.getResourceProperties()) || PromptBatch.isBatch(cfcre.getOldResourceProperties())) {
+            return batch.update(cfcre);
+        }
+
         // Old Values
         final var name_old = cfcre.getOldResourceProperties().getOrDefault(NAME_INPUT,"").toString();
         final var text_old = cfcre.getOldResourceProperties().getOrDefault(TEXT_INPUT,"").toString();
@@ -145,22 +168,22 @@ public class PollyPromptGenerator extends AbstractCustomResourceHandler {
                 log.debug("The filename has changed from [" + name_old + "] to [" + name + "]");
 
                 // Delete the old file
-                deleteS3Object(name_old);
+                deleteS3Object(name_old, cfcre.getLogicalResourceId());
                 // Create new based on incoming values
-                createPrompt(name, text, voice_id, engine);
+                createPrompt(name, text, voice_id, engine, cfcre.getLogicalResourceId());
 
             } else if (!Objects.equals(text, text_old)) {
                 log.debug("The text has changed from [" + text_old + "] to [" + text + "]");
                 // Just re-creaate the prompt
-                createPrompt(name, text, voice_id, engine);
+                createPrompt(name, text, voice_id, engine, cfcre.getLogicalResourceId());
             } else if (!Objects.equals(voice_id, voice_id_old)) {
                 log.debug("The voice has changed from [" + voice_id_old + "] to [" + voice_id + "]");
                 // Just re-creaate the prompt
-                createPrompt(name, text, voice_id, engine);
+                createPrompt(name, text, voice_id, engine, cfcre.getLogicalResourceId());
             } else if (!Objects.equals(engine, engine_old)) {
                 log.debug("The engine has changed from [" + engine_old + "] to [" + engine + "]");
                 // Just re-creaate the prompt
-                createPrompt(name, text, voice_id, engine);
+                createPrompt(name, text, voice_id, engine, cfcre.getLogicalResourceId());
             } else {
                 log.debug("No Changes were detected in the old vs new values, thus doing nothing !");
             }
@@ -180,11 +203,14 @@ public class PollyPromptGenerator extends AbstractCustomResourceHandler {
      */
     @Override
     protected Response delete(final CloudFormationCustomResourceEvent cfcre, final Context cntxt) {
+        if (PromptBatch.isBatch(cfcre.getResourceProperties())) {
+            return batch.delete(cfcre);
+        }
         try {
             final var name = cfcre.getResourceProperties().getOrDefault(NAME_INPUT,"").toString();
 
             if (! name.isBlank()) {
-                deleteS3Object(name);
+                deleteS3Object(name, cfcre.getLogicalResourceId());
                 log.debug("Deleting Promp " + name);
             } else {
                 log.warn(NAME_INPUT + " must be set, so will not attempt S3 Delete");
@@ -200,70 +226,116 @@ public class PollyPromptGenerator extends AbstractCustomResourceHandler {
     }
 
     /**
-     * Create Prompt and Write the file to the S3 bucket
+     * Create Prompt and Write the file to the S3 bucket. Polly is only called when the same text, voice and engine has
+     * not been rendered before, otherwise the cached WAV is copied to the prompt within S3.
      *
      * @param name
      * @param text
      * @param voice_id
+     * @param engine
+     * @param owner logical ID of the resource creating the prompt
      * @throws IOException
-     * @throws InterruptedException
      */
-    private void createPrompt(final String name, final String text, final VoiceId voice_id, final Engine engine) throws IOException, InterruptedException {
-        final var ssr = SynthesizeSpeechRequest.builder()
-                .engine(engine)
-                .voiceId(voice_id)
-                .sampleRate("8000")
-                .outputFormat(OutputFormat.PCM)
-                .textType(text.toLowerCase().contains("<speak>") ? TextType.SSML : TextType.TEXT)
-                .text(text).build();
-
-        // get the task root which is where all the resources will be (sox binary)
-        final var task_root = System.getenv("LAMBDA_TASK_ROOT");
-
-        // Sox binary is in the resource folder
-        final var soxBinary = Path.of(task_root, "sox");
-        log.debug("LD_LIBRARY_PATH=" + System.getenv("LD_LIBRARY_PATH"));
-
-        // Name of temp for input to sox
-        final var pollyFile = Path.of("/tmp", UUID.randomUUID().toString() + ".pcm");
-
-        // Name of temp for outout of sox
-        final var wavFile = Path.of("/tmp", name);
-
-        // Take the Polly output and write to temp file
-        Files.copy(polly.synthesizeSpeech(ssr), pollyFile, StandardCopyOption.REPLACE_EXISTING);
-
-        // Call sox to convert PCM file to WAV for Chime SDK Playback
-        // https://docs.aws.amazon.com/chime-sdk/latest/dg/play-audio.html
-        final var command = String.format("%s -t raw -r 8000 -e signed -b 16 -c 1 %s -r 8000 -c 1 %s", soxBinary, pollyFile, wavFile);
-        log.debug("Executing: " + command);
-        final var process = Runtime.getRuntime().exec(command);
-
-        final var inStream = new StreamGobbler(process.getInputStream(), log::debug);
-        Executors.newSingleThreadExecutor().submit(inStream);
-
-        final var errorStream = new StreamGobbler(process.getErrorStream(), log::debug);
-        Executors.newSingleThreadExecutor().submit(errorStream);
-
-        log.debug(" Process exited with " + process.waitFor());
+    void createPrompt(final String name, final String text, final VoiceId voice_id, final Engine engine, final String owner) throws IOException {
+        final var cacheKey = cacheKey(text, voice_id, engine);
+
+        if (isCached(cacheKey)) {
+            log.debug("Prompt [{}] found in cache as [{}]", name, cacheKey);
+        } else {
+            final var ssr = SynthesizeSpeechRequest.builder()
+                    .engine(engine)
+                    .voiceId(voice_id)
+                    .sampleRate(String.valueOf(WavWriter.SAMPLE_RATE))
+                    .outputFormat(OutputFormat.PCM)
+                    .textType(text.toLowerCase().contains("<speak>") ? TextType.SSML : TextType.TEXT)
+                    .text(text).build();
+
+            // Polly PCM is already 16 bit mono, so only a WAV header is needed for Chime SDK Playback
+            // https://docs.aws.amazon.com/chime-sdk/latest/dg/play-audio.html
+            final WavWriter.Wav wav;
+            try (var pcm = polly.synthesizeSpeech(ssr)) {
+                wav = WavWriter.fromPcm(pcm);
+            }
+            log.debug("Generated {} byte WAV for [{}], caching as [{}]", wav.length(), name, cacheKey);
+
+            s3.putObject(PutObjectRequest.builder()
+                    .bucket(BUCKET_NAME)
+                    .contentType("audio/wav")
+                    .key(cacheKey)
+                    .build(),
+                    RequestBody.fromInputStream(wav.stream(), wav.length())
+            );
+        }
 
-        // Push the final wav file into the prompt bucket
-        s3.putObject(PutObjectRequest.builder()
-                .bucket(BUCKET_NAME)
+        // Copy the rendered wav to the prompt name
+        s3.copyObject(CopyObjectRequest.builder()
+                .sourceBucket(BUCKET_NAME)
+                .sourceKey(cacheKey)
+                .destinationBucket(BUCKET_NAME)
+                .destinationKey(name)
                 // Chime needs this to be set exactly to the below
                 .contentType("audio/wav")
-                .key(name)
-                .build(),
-                RequestBody.fromFile(wavFile)
+                .metadataDirective(MetadataDirective.REPLACE)
+                .metadata(Map.of(OWNER_METADATA, owner))
+                .build()
         );
     }
 
     /**
-     * Delete object in the prompt bucket
+     * Key of the rendered audio in the cache, a hash of everything that goes into the WAV.
+     *
+     * @param text
+     * @param voice_id
+     * @param engine
+     * @return cache/[sha256].wav
+     */
+    static String cacheKey(final String text, final VoiceId voice_id, final Engine engine) {
+        try {
+            final var md = MessageDigest.getInstance("SHA-256");
+            // Version is bumped whenever the way the WAV is produced changes
+            for (var part : List.of(CACHE_VERSION, text, voice_id.toString(), engine.toString(), String.valueOf(WavWriter.SAMPLE_RATE))) {
+                md.update(part.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            return CACHE_PREFIX + HexFormat.of().formatHex(md.digest()) + ".wav";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean isCached(final String cacheKey) {
+        try {
+            s3.headObject(HeadObjectRequest.builder()
+                    .bucket(BUCKET_NAME)
+                    .key(cacheKey)
+                    .build());
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Delete object in the prompt bucket, unless another resource has written it since (like when prompts move between
+     * resources in the template, the old resource is deleted after the new one has written the prompt).
      *
      * @param name
+     * @param owner logical ID of the resource deleting the prompt
      */
-    private void deleteS3Object(final String name) {
+    void deleteS3Object(final String name, final String owner) {
+        try {
+            final var current = s3.headObject(HeadObjectRequest.builder()
+                    .bucket(BUCKET_NAME)
+                    .key(name)
+                    .build()).metadata().get(OWNER_METADATA);
+            // Prompts written before ownership was tracked have no owner
+            if (current != null && !current.equals(owner)) {
+                log.debug("Prompt [{}] now belongs to [{}], not deleting", name, current);
+                return;
+            }
+        } catch (NoSuchKeyException e) {
+            return;
+        }
         s3.deleteObject(DeleteObjectRequest.builder()
                 .bucket(BUCKET_NAME)
                 .key(name)
@@ -277,7 +349,7 @@ public class PollyPromptGenerator extends AbstractCustomResourceHandler {
      * @param voice_id
      * @return VoiceId enum
      */
-    private VoiceId validateVoiceId(final String voice_id) {
+    VoiceId validateVoiceId(final String voice_id) {
         if (voice_id == null || voice_id.isBlank()) {
             return DEFAULT_VOICE;
         }
@@ -304,7 +376,7 @@ public class PollyPromptGenerator extends AbstractCustomResourceHandler {
      * @param engine
      * @return
      */
-    private Engine validateEngine(final String engine) {
+    Engine validateEngine(final String engine) {
         if (engine == null || engine.isBlank()) {
             return DEFAULT_ENGINE;
         }
@@ -324,21 +396,4 @@ public class PollyPromptGenerator extends AbstractCustomResourceHandler {
 
         return DEFAULT_ENGINE;
     }
-
-    private static class StreamGobbler implements Runnable {
-
-        private final InputStream inputStream;
-        private final Consumer<String> consumer;
-
-        public StreamGobbler(InputStream inputStream, Consumer<String> consumer) {
-            this.inputStream = inputStream;
-            this.consumer = consumer;
-        }
-
-        @Override
-        public void run() {
-            new BufferedReader(new InputStreamReader(inputStream)).lines()
-                    .forEach(consumer);
-        }
-    }
 }
@@ -0,0 +1,211 @@
+package cloud.cleo.chimesma;
+
+import static cloud.cleo.chimesma.PollyPromptGenerator.BUCKET_NAME;
+import static cloud.cleo.chimesma.PollyPromptGenerator.ENGINE_INPUT;
+import static cloud.cleo.chimesma.PollyPromptGenerator.NAME_INPUT;
+import static cloud.cleo.chimesma.PollyPromptGenerator.TEXT_INPUT;
+import static cloud.cleo.chimesma.PollyPromptGenerator.VOICEID_INPUT;
+import com.amazonaws.services.lambda.runtime.events.CloudFormationCustomResourceEvent;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.polly.model.Engine;
+import software.amazon.awssdk.services.polly.model.VoiceId;
+import software.amazon.lambda.powertools.cloudformation.Response;
+
+/**
+ * Batch mode of the PromptCreator, a single resource creates a whole list of prompts so CloudFormation makes one call
+ * instead of one per prompt. Prompts are synthesized a few at a time and each is uploaded as soon as it's ready.
+ * <pre>
+ *   Prompts:
+ *     Type: Custom::PromptCreator
+ *     Properties:
+ *         ServiceToken: !GetAtt PromptCreator.Arn
+ *         VoiceId: Joanna        # Optional default for the prompts
+ *         Engine: neural         # Optional default for the prompts
+ *         Prompts:
+ *           - PromptName: try-again-en-US.wav
+ *             PromptText: Please try again.
+ *           - PromptName: try-again-es-US.wav
+ *             PromptText: Inténtalo de nuevo.
+ *             VoiceId: Lupe
+ * </pre>
+ *
+ * @author sjensen
+ */
+final class PromptBatch {
+
+    private final static Logger log = LogManager.getLogger(PromptBatch.class);
+
+    // The list of prompts, each with the same inputs as a single prompt
+    final static String PROMPTS_INPUT = "Prompts";
+
+    // Polly calls at the same time, kept under the neural engine's SynthesizeSpeech rate
+    private final static int CONCURRENCY = 8;
+
+    private final PollyPromptGenerator generator;
+
+    PromptBatch(PollyPromptGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * @param props resource properties
+     * @return true when the properties are for a batch of prompts
+     */
+    static boolean isBatch(Map<String, Object> props) {
+        return props != null && props.containsKey(PROMPTS_INPUT);
+    }
+
+    Response create(CloudFormationCustomResourceEvent cfcre) {
+        final var id = BUCKET_NAME + "/" + cfcre.getLogicalResourceId();
+        try {
+            final var prompts = parse(cfcre.getResourceProperties());
+            log.debug("Creating {} prompts", prompts.size());
+            synthesize(prompts.values(), cfcre.getLogicalResourceId());
+            return Response.success(id);
+        } catch (Exception e) {
+            log.error("Could Not create the prompts", e);
+            return Response.failed(id);
+        }
+    }
+
+    /**
+     * Only prompts that are new or have changed are synthesized again, and prompts no longer in the list are deleted.
+     *
+     * @param cfcre
+     * @return
+     */
+    Response update(CloudFormationCustomResourceEvent cfcre) {
+        try {
+            final var prompts = parse(cfcre.getResourceProperties());
+            final var old = parse(cfcre.getOldResourceProperties());
+
+            final var changed = prompts.values().stream()
+                    .filter(p -> !p.equals(old.get(p.name())))
+                    .toList();
+            log.debug("{} of {} prompts are new or have changed", changed.size(), prompts.size());
+            synthesize(changed, cfcre.getLogicalResourceId());
+
+            final var removed = old.keySet().stream()
+                    .filter(name -> !prompts.containsKey(name))
+                    .toList();
+            log.debug("Deleting {} prompts no longer in the list", removed.size());
+            delete(removed, cfcre.getLogicalResourceId());
+
+            return Response.success(cfcre.getPhysicalResourceId());
+        } catch (Exception e) {
+            log.error("Could Not update the prompts", e);
+            return Response.failed(cfcre.getPhysicalResourceId());
+        }
+    }
+
+    Response delete(CloudFormationCustomResourceEvent cfcre) {
+        try {
+            delete(parse(cfcre.getResourceProperties()).keySet(), cfcre.getLogicalResourceId());
+        } catch (Exception e) {
+            // Same as a single prompt, never stop the stack delete
+            log.error("Could Not delete the prompts, but not returning CF error", e);
+        }
+        return Response.success(cfcre.getPhysicalResourceId());
+    }
+
+    private void synthesize(Iterable<Prompt> prompts, String owner) throws Exception {
+        final var tasks = new ArrayList<Callable<Void>>();
+        for (var prompt : prompts) {
+            tasks.add(() -> {
+                log.debug("Creating Prompt [{}]", prompt.name());
+                generator.createPrompt(prompt.name(), prompt.text(), prompt.voiceId(), prompt.engine(), owner);
+                return null;
+            });
+        }
+        runAll(tasks);
+    }
+
+    private void delete(Iterable<String> names, String owner) throws Exception {
+        final var tasks = new ArrayList<Callable<Void>>();
+        for (var name : names) {
+            tasks.add(() -> {
+                log.debug("Deleting Prompt [{}]", name);
+                generator.deleteS3Object(name, owner);
+                return null;
+            });
+        }
+        runAll(tasks);
+    }
+
+    /**
+     * Run the tasks with bounded concurrency, throwing the first failure once all are done.
+     */
+    private static void runAll(List<Callable<Void>> tasks) throws Exception {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        final List<Future<Void>> results;
+        try (var executor = Executors.newFixedThreadPool(Math.min(CONCURRENCY, tasks.size()))) {
+            results = executor.invokeAll(tasks);
+        }
+        for (var result : results) {
+            result.get();
+        }
+    }
+
+    /**
+     * Prompts in the properties by name. A single prompt (no list) is read as a batch of one, so a resource can be
+     * changed between the two forms.
+     *
+     * @param props resource properties, may be null
+     * @return prompts by name
+     */
+    private Map<String, Prompt> parse(Map<String, Object> props) {
+        final var prompts = new LinkedHashMap<String, Prompt>();
+        if (props == null) {
+            return prompts;
+        }
+        final var voiceId = string(props, VOICEID_INPUT);
+        final var engine = string(props, ENGINE_INPUT);
+
+        final List<?> list = props.get(PROMPTS_INPUT) instanceof List<?> l ? l
+                : props.containsKey(NAME_INPUT) ? List.of(props) : List.of();
+        for (var item : list) {
+            if (!(item instanceof Map<?, ?> map)) {
+                throw new IllegalArgumentException(PROMPTS_INPUT + " must be a list of prompts");
+            }
+            final var name = string(map, NAME_INPUT);
+            final var text = string(map, TEXT_INPUT);
+            if (name.isBlank()) {
+                throw new IllegalArgumentException(NAME_INPUT + " must be provided for every prompt");
+            }
+            if (text.isBlank()) {
+                throw new IllegalArgumentException(TEXT_INPUT + " must be provided for prompt " + name);
+            }
+            final var prompt = new Prompt(name, text,
+                    generator.validateVoiceId(Objects.requireNonNullElse(nonBlank(string(map, VOICEID_INPUT)), voiceId)),
+                    generator.validateEngine(Objects.requireNonNullElse(nonBlank(string(map, ENGINE_INPUT)), engine)));
+            if (prompts.put(name, prompt) != null) {
+                throw new IllegalArgumentException("Prompt " + name + " is in the list more than once");
+            }
+        }
+        return prompts;
+    }
+
+    private static String string(Map<?, ?> map, String key) {
+        final var value = map.get(key);
+        return value == null ? "" : value.toString();
+    }
+
+    private static String nonBlank(String value) {
+        return value.isBlank() ? null : value;
+    }
+
+    private record Prompt(String name, String text, VoiceId voiceId, Engine engine) {
+
+    }
+}
@@ -1,13 +1,22 @@
 
 package cloud.cleo.chimesma;
 
+import cloud.cleo.chimesma.actions.SpeakAction;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.CloudFormationCustomResourceEvent;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -17,7 +26,10 @@ import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.lambda.powertools.cloudformation.AbstractCustomResourceHandler;
 import software.amazon.lambda.powertools.cloudformation.Response;
@@ -44,26 +56,48 @@ public class PromptCopier extends AbstractCustomResourceHandler {
      */
     private final static String BUCKET_NAME = System.getenv("PROMPT_BUCKET");
 
+    // Uploads that run at the same time, the custom resource has to finish well within its timeout
+    private final static int CONCURRENCY = 16;
+
+    // Max keys S3 takes in one DeleteObjects
+    private final static int DELETE_BATCH = 1000;
+
     @Override
     protected Response create(CloudFormationCustomResourceEvent cfcre, Context cntxt) {
         log.debug("Received CREATE Event from Cloudformation");
         log.debug(cfcre);
 
         try {
-
-            // Process all the prompts
-            for (var path : getPromptList()) {
-                log.debug("Copying Prompt [" + path + "] to S3");
-                final var por = PutObjectRequest.builder()
-                        .bucket(BUCKET_NAME)
-                        // Chime requires audio/wav, but a default copy would set audio/x-wav 
-                        .contentType("audio/wav")
-                        .key(path.getFileName().toString())
-                        .build();
-
-                // Push the wav file into the prompt bucket
-                s3.putObject(por, RequestBody.fromFile(path));
+            final var existing = getExistingETags();
+
+            final var uploads = new ArrayList<Future<?>>();
+            try (var executor = Executors.newFixedThreadPool(CONCURRENCY)) {
+                // Process all the prompts
+                for (var path : getPromptList()) {
+                    final var key = path.getFileName().toString();
+                    if (md5Hex(path).equals(existing.get(key))) {
+                        log.debug("Prompt [{}] is unchanged in S3, skipping", key);
+                        continue;
+                    }
+                    uploads.add(executor.submit(() -> {
+                        log.debug("Copying Prompt [{}] to S3", path);
+                        final var por = PutObjectRequest.builder()
+                                .bucket(BUCKET_NAME)
+                                // Chime requires audio/wav, but a default copy would set audio/x-wav 
+                                .contentType("audio/wav")
+                                .key(key)
+                                .build();
+
+                        // Push the wav file into the prompt bucket
+                        s3.putObject(por, RequestBody.fromFile(path));
+                    }));
+                }
+                // Surface the first failure
+                for (var upload : uploads) {
+                    upload.get();
+                }
             }
+            log.debug("Copied {} Prompts to S3", uploads.size());
             return Response.success(UUID.randomUUID().toString());
         } catch (Exception e) {
             log.error("Could Not copy prompts", e);
@@ -72,7 +106,8 @@ public class PromptCopier extends AbstractCustomResourceHandler {
     }
 
     /**
-     * Delete the prompts we created so the bucket can be deleted
+     * Delete the prompts we created and the ones rendered from Speak Actions. The Polly prompt cache expires with the
+     * bucket's lifecycle rule.
      *
      * @param cfcre
      * @param cntxt
@@ -81,17 +116,27 @@ public class PromptCopier extends AbstractCustomResourceHandler {
     @Override
     protected Response delete(CloudFormationCustomResourceEvent cfcre, Context cntxt) {
         try {
+            final var keys = getPromptList().stream()
+                    .map(path -> ObjectIdentifier.builder().key(path.getFileName().toString()).build())
+                    .collect(Collectors.toCollection(ArrayList::new));
 
-            // Process all the prompts
-            for (var path : getPromptList()) {
-                log.debug("Deleting Prompt [" + path + "] from S3");
+            // Rendered at runtime, so no resource knows which there are
+            s3.listObjectsV2Paginator(ListObjectsV2Request.builder().bucket(BUCKET_NAME).prefix(SpeakAction.RENDERED_PROMPT_PREFIX).build())
+                    .contents()
+                    .forEach(o -> keys.add(ObjectIdentifier.builder().key(o.key()).build()));
 
-                final var dor = DeleteObjectRequest.builder()
+            for (int i = 0; i < keys.size(); i += DELETE_BATCH) {
+                final var batch = keys.subList(i, Math.min(i + DELETE_BATCH, keys.size()));
+                log.debug("Deleting {} Prompts from S3", batch.size());
+
+                final var dor = DeleteObjectsRequest.builder()
                         .bucket(BUCKET_NAME)
-                        .key(path.getFileName().toString())
+                        .delete(Delete.builder().objects(batch).quiet(true).build())
                         .build();
 
-                s3.deleteObject(dor);
+                for (var error : s3.deleteObjects(dor).errors()) {
+                    log.error("Could Not delete Prompt [{}] {}", error.key(), error.message());
+                }
             }
 
         } catch (Exception e) {
@@ -100,6 +145,28 @@ public class PromptCopier extends AbstractCustomResourceHandler {
         return Response.success(cfcre.getPhysicalResourceId());
     }
 
+    /**
+     * ETag for every object in the bucket. Objects we uploaded in a single put have the MD5 of the content as the ETag.
+     *
+     * @return ETag (without quotes) by key
+     */
+    private Map<String, String> getExistingETags() {
+        final var etags = new HashMap<String, String>();
+        s3.listObjectsV2Paginator(ListObjectsV2Request.builder().bucket(BUCKET_NAME).build())
+                .contents()
+                .forEach(o -> etags.put(o.key(), o.eTag().replace("\"", "")));
+        return etags;
+    }
+
+    private static String md5Hex(Path path) throws IOException {
+        try {
+            final var md = MessageDigest.getInstance("MD5");
+            return HexFormat.of().formatHex(md.digest(Files.readAllBytes(path)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      *
      * List of all files in the prompt directory
@@ -107,7 +174,7 @@ public class PromptCopier extends AbstractCustomResourceHandler {
      */
     private List<Path> getPromptList() throws IOException {
 
-        // get the task root which is where all the resources will be (sox binary)
+        // get the task root which is where all the resources will be
         final var task_root = System.getenv("LAMBDA_TASK_ROOT");
 
         // Path to where the static prompts are
@@ -0,0 +1,29 @@
+package cloud.cleo.chimesma.simulator;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * What the simulated caller does on every call.
+ *
+ * @author sjensen
+ * @param digits digits entered in order, one entry for each prompt asking for digits. When they run out the caller hangs
+ * up at the next prompt.
+ * @param botIntent Intent name returned when a Lex Bot conversation completes
+ * @param talkTime how long a bridged call stays up before the far end hangs up
+ * @param timeScale multiplier for the time Actions take to play out (1.0 is real time, 0 does not wait at all)
+ */
+public record CallScript(List<String> digits, String botIntent, Duration talkTime, double timeScale) {
+
+    /**
+     * Wait for the Action to play out.
+     *
+     * @param duration real time the Action would take on a call
+     * @throws InterruptedException
+     */
+    void playOut(Duration duration) throws InterruptedException {
+        if (timeScale > 0) {
+            Thread.sleep((long) (duration.toMillis() * timeScale));
+        }
+    }
+}
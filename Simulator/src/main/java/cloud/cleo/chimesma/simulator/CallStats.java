@@ -0,0 +1,120 @@
+package cloud.cleo.chimesma.simulator;
+
+import cloud.cleo.chimesma.model.ResponseActionType;
+import cloud.cleo.chimesma.model.SMARequest.SMAEventType;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency histograms and counters shared by all the simulated calls.
+ *
+ * Invocations are recorded by the event type sent to the Flow and also by each Action type in the response, so a slow
+ * function behind one kind of Action shows up on that Action.
+ *
+ * @author sjensen
+ */
+public final class CallStats {
+
+    // Anything near this is far past the SMA 20 second timeout anyway
+    private final static long HIGHEST_TRACKABLE = TimeUnit.SECONDS.toNanos(60);
+    private final static int SIGNIFICANT_DIGITS = 3;
+
+    private final Map<SMAEventType, Histogram> events = new EnumMap<>(SMAEventType.class);
+    private final Map<ResponseActionType, Histogram> actions = new EnumMap<>(ResponseActionType.class);
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failedCalls = new LongAdder();
+    private final LongAdder invocations = new LongAdder();
+
+    public CallStats() {
+        for (var type : SMAEventType.values()) {
+            events.put(type, new ConcurrentHistogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS));
+        }
+        for (var type : ResponseActionType.values()) {
+            actions.put(type, new ConcurrentHistogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS));
+        }
+    }
+
+    /**
+     * Record a single invocation of the Flow.
+     *
+     * @param type event type sent to the Flow
+     * @param nanos time spent in the Flow
+     * @param actionTypes the distinct Action types in the response
+     */
+    void invocation(SMAEventType type, long nanos, Collection<ResponseActionType> actionTypes) {
+        final var value = Math.min(nanos, HIGHEST_TRACKABLE);
+        events.get(type).recordValue(value);
+        for (var actionType : actionTypes) {
+            actions.get(actionType).recordValue(value);
+        }
+        invocations.increment();
+    }
+
+    /**
+     * Record the end of a call.
+     *
+     * @param ok false when the call could not be completed
+     */
+    void callComplete(boolean ok) {
+        calls.increment();
+        if (!ok) {
+            failedCalls.increment();
+        }
+    }
+
+    /**
+     * Build the report for the run.
+     *
+     * @param flow name of the Flow
+     * @param concurrency
+     * @param wallTime how long the whole run took
+     * @return report
+     */
+    public LoadReport report(String flow, int concurrency, Duration wallTime) {
+        final var eventLatency = new LinkedHashMap<String, LoadReport.Latency>();
+        events.forEach((type, histogram) -> {
+            if (histogram.getTotalCount() > 0) {
+                eventLatency.put(type.toString(), LoadReport.Latency.of(histogram));
+            }
+        });
+        final var actionLatency = new LinkedHashMap<String, LoadReport.Latency>();
+        actions.forEach((type, histogram) -> {
+            if (histogram.getTotalCount() > 0) {
+                actionLatency.put(type.toString(), LoadReport.Latency.of(histogram));
+            }
+        });
+        return new LoadReport(flow, calls.sum(), failedCalls.sum(), concurrency, wallTime.toMillis(),
+                invocations.sum(), eventLatency, actionLatency);
+    }
+
+    /**
+     * Print a summary of the run.
+     *
+     * @param out
+     * @param report
+     */
+    public static void print(PrintStream out, LoadReport report) {
+        final var seconds = Math.max(report.wallTimeMillis(), 1) / 1000.0;
+        out.printf("Calls: %d (%d failed) in %.1fs, %.1f calls/s%n", report.calls(), report.failedCalls(), seconds, report.calls() / seconds);
+        out.printf("Invocations: %d, %.1f per call, %.1f/s%n", report.invocations(),
+                report.calls() == 0 ? 0.0 : (double) report.invocations() / report.calls(), report.invocations() / seconds);
+        print(out, "Event", report.events());
+        print(out, "Action", report.actions());
+    }
+
+    private static void print(PrintStream out, String title, Map<String, LoadReport.Latency> latencies) {
+        out.println();
+        out.printf("%-24s %10s %10s %10s %10s %10s %10s %10s%n", title, "Count", "Mean", "p50", "p90", "p99", "p99.9", "Max (µs)");
+        latencies.forEach((name, l) -> out.printf("%-24s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                name, l.count(), l.mean(), l.p50(), l.p90(), l.p99(), l.p999(), l.max()));
+    }
+}
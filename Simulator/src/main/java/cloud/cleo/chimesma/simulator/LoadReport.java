@@ -0,0 +1,51 @@
+package cloud.cleo.chimesma.simulator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Machine readable results of a simulator run, written as JSON so runs against different versions can be compared.
+ * All latencies are in microseconds.
+ *
+ * @author sjensen
+ * @param flow Flow class the calls were run against
+ * @param calls
+ * @param failedCalls
+ * @param concurrency
+ * @param wallTimeMillis
+ * @param invocations total Flow invocations
+ * @param events latency by the SMA event type sent to the Flow
+ * @param actions latency by the Action types in the response
+ */
+public record LoadReport(String flow, long calls, long failedCalls, int concurrency, long wallTimeMillis,
+        long invocations, Map<String, Latency> events, Map<String, Latency> actions) {
+
+    /**
+     * Write the report as JSON.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, this);
+    }
+
+    /**
+     * Latency percentiles in microseconds.
+     */
+    public record Latency(long count, double mean, double p50, double p90, double p99, double p999, double max) {
+
+        static Latency of(Histogram h) {
+            return new Latency(h.getTotalCount(), h.getMean() / 1000.0,
+                    h.getValueAtPercentile(50) / 1000.0,
+                    h.getValueAtPercentile(90) / 1000.0,
+                    h.getValueAtPercentile(99) / 1000.0,
+                    h.getValueAtPercentile(99.9) / 1000.0,
+                    h.getMaxValue() / 1000.0);
+        }
+    }
+}
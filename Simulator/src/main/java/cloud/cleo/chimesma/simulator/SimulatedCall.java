@@ -0,0 +1,275 @@
+package cloud.cleo.chimesma.simulator;
+
+import cloud.cleo.chimesma.actions.AbstractFlow;
+import cloud.cleo.chimesma.model.ResponseActionType;
+import cloud.cleo.chimesma.model.SMARequest.SMAEventType;
+import static cloud.cleo.chimesma.model.SMARequest.SMAEventType.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * One inbound call from start to finish.
+ *
+ * Plays the part of SMA: each response from the Flow is played out (taking the time the Actions would take on a real
+ * call) and then the event SMA would send next is built and sent to the Flow. The call ends when LEG-A is hung up,
+ * either by the Flow or by the caller running out of scripted digits.
+ *
+ * @author sjensen
+ */
+final class SimulatedCall {
+
+    private final static Logger log = LogManager.getLogger(SimulatedCall.class);
+
+    // A call that keeps going this long is considered stuck
+    private final static int MAX_INVOCATIONS = 100;
+
+    // How long Actions take to play out on a real call
+    private final static Duration SPEECH_PER_CHARACTER = Duration.ofMillis(60);
+    private final static Duration AUDIO_PROMPT = Duration.ofSeconds(3);
+    private final static Duration DIGIT_ENTRY = Duration.ofSeconds(2);
+    private final static Duration RING = Duration.ofSeconds(4);
+    private final static Duration BOT_CONVERSATION = Duration.ofSeconds(20);
+    private final static Duration RECORDING = Duration.ofSeconds(10);
+
+    private final AbstractFlow flow;
+    private final CallScript script;
+    private final CallStats stats;
+    private final ObjectMapper mapper;
+
+    private final ArrayDeque<String> digits;
+    private final String transactionId = UUID.randomUUID().toString();
+    private final ObjectNode legA;
+    private ObjectNode legB;
+
+    private JsonNode transactionAttributes;
+    private int sequence = 0;
+
+    SimulatedCall(AbstractFlow flow, CallScript script, CallStats stats, ObjectMapper mapper) {
+        this.flow = flow;
+        this.script = script;
+        this.stats = stats;
+        this.mapper = mapper;
+        this.digits = new ArrayDeque<>(script.digits());
+
+        final var from = "+1612555" + String.format("%04d", ThreadLocalRandom.current().nextInt(10000));
+        this.legA = participant("LEG-A", "Inbound", from, "+17035550122");
+    }
+
+    /**
+     * Run the call to completion.
+     *
+     * @return true when the call completed, false when it got stuck or failed
+     */
+    boolean run() {
+        try {
+            var event = event(NEW_INBOUND_CALL, null);
+            for (int i = 0; i < MAX_INVOCATIONS; i++) {
+                final var res = invoke(event);
+                if (res.has("TransactionAttributes")) {
+                    // SMA keeps the attributes from the last response that had them
+                    transactionAttributes = res.get("TransactionAttributes");
+                }
+                if (isDisconnected(legA)) {
+                    // That was the HANGUP event, nothing more to do
+                    return true;
+                }
+                event = playOut(res.path("Actions"));
+            }
+            log.warn("Call {} did not end after {} invocations", transactionId, MAX_INVOCATIONS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Call {} failed", transactionId, e);
+        }
+        return false;
+    }
+
+    /**
+     * Play out the Actions returned by the Flow and return the event SMA sends next.
+     */
+    private ObjectNode playOut(JsonNode actions) throws InterruptedException {
+        if (actions.isEmpty()) {
+            if (legB != null && !isDisconnected(legB)) {
+                // Bridged call, talk until the far end hangs up
+                script.playOut(script.talkTime());
+                legB.put("Status", "Disconnected");
+                return event(HANGUP, hangupActionData(legB));
+            }
+            // Nothing for the caller to hear, so eventually they give up
+            return callerHangup();
+        }
+
+        JsonNode last = null;
+        for (var action : actions) {
+            last = action;
+            final var type = action.path("Type").asText();
+            final var params = action.path("Parameters");
+
+            switch (type) {
+                case "Hangup" -> {
+                    if ("LEG-B".equals(params.path("ParticipantTag").asText())) {
+                        if (legB != null) {
+                            legB.put("Status", "Disconnected");
+                        }
+                    } else {
+                        legA.put("Status", "Disconnected");
+                        return event(HANGUP, hangupActionData(legA));
+                    }
+                }
+                case "PlayAudioAndGetDigits", "SpeakAndGetDigits" -> {
+                    script.playOut(type.startsWith("Speak") ? speech(params.path("SpeechParameters")) : AUDIO_PROMPT);
+                    if (digits.isEmpty()) {
+                        return callerHangup();
+                    }
+                    script.playOut(DIGIT_ENTRY);
+                    return event(ACTION_SUCCESSFUL, actionData(action).put("ReceivedDigits", digits.poll()));
+                }
+                case "CallAndBridge" -> {
+                    script.playOut(RING);
+                    legB = participant("LEG-B", "Outbound", legA.path("To").asText(),
+                            params.path("Endpoints").path(0).path("Uri").asText());
+                    return event(ACTION_SUCCESSFUL, actionData(action));
+                }
+                case "StartBotConversation" -> {
+                    script.playOut(BOT_CONVERSATION);
+                    final var actionData = actionData(action);
+                    actionData.putObject("IntentResult").putObject("SessionState").putObject("Intent")
+                            .put("Name", script.botIntent()).put("State", "Fulfilled");
+                    return event(ACTION_SUCCESSFUL, actionData);
+                }
+                case "RecordAudio" -> {
+                    script.playOut(params.has("DurationInSeconds") ? Duration.ofSeconds(params.get("DurationInSeconds").asLong()) : RECORDING);
+                    final var actionData = actionData(action);
+                    actionData.put("RecordingTerminatorUsed", "#");
+                    actionData.putObject("RecordingDestination")
+                            .put("Type", "S3")
+                            .put("BucketName", params.path("RecordingDestination").path("BucketName").asText("recordings"))
+                            .put("Key", transactionId + ".wav");
+                    return event(ACTION_SUCCESSFUL, actionData);
+                }
+                case "StartCallRecording" -> {
+                    final var actionData = actionData(action);
+                    actionData.putObject("CallRecordingDestination")
+                            .put("Type", "S3")
+                            .put("Location", "recordings/" + transactionId + ".wav");
+                    // Only sent back alone when the Flow wants the location
+                    if (actions.size() == 1) {
+                        return event(ACTION_SUCCESSFUL, actionData);
+                    }
+                }
+                case "Speak" ->
+                    script.playOut(speech(params));
+                case "PlayAudio" ->
+                    script.playOut(AUDIO_PROMPT);
+                case "Pause" ->
+                    script.playOut(Duration.ofMillis(params.path("DurationInMilliseconds").asLong(0)));
+                default -> {
+                    // Recording controls etc. happen instantly
+                }
+            }
+        }
+
+        // SMA reports success on the last Action in the list
+        return event(ACTION_SUCCESSFUL, actionData(last));
+    }
+
+    private ObjectNode callerHangup() {
+        legA.put("Status", "Disconnected");
+        if (legB != null) {
+            legB.put("Status", "Disconnected");
+        }
+        return event(HANGUP, hangupActionData(legA));
+    }
+
+    private JsonNode invoke(ObjectNode event) throws IOException {
+        final var type = SMAEventType.valueOf(event.get("InvocationEventType").asText());
+        final var in = mapper.writeValueAsBytes(event);
+        final var out = new ByteArrayOutputStream(2048);
+
+        final var start = System.nanoTime();
+        flow.handleRequest(new ByteArrayInputStream(in), out, null);
+        final var elapsed = System.nanoTime() - start;
+
+        final var res = mapper.readTree(out.toByteArray());
+        final var actionTypes = EnumSet.noneOf(ResponseActionType.class);
+        for (var action : res.path("Actions")) {
+            actionTypes.add(ResponseActionType.valueOf(action.path("Type").asText()));
+        }
+        stats.invocation(type, elapsed, actionTypes);
+        return res;
+    }
+
+    private ObjectNode event(SMAEventType type, ObjectNode actionData) {
+        final var event = mapper.createObjectNode()
+                .put("SchemaVersion", "1.0")
+                .put("Sequence", ++sequence)
+                .put("InvocationEventType", type.toString());
+        if (actionData != null) {
+            event.set("ActionData", actionData);
+        }
+
+        final var cd = event.putObject("CallDetails")
+                .put("TransactionId", transactionId)
+                .put("AwsAccountId", "123456789012")
+                .put("AwsRegion", "us-east-1")
+                .put("SipMediaApplicationId", "simulator");
+        if (transactionAttributes != null) {
+            cd.set("TransactionAttributes", transactionAttributes);
+        }
+        final ArrayNode participants = cd.putArray("Participants");
+        participants.add(legA.deepCopy());
+        if (legB != null) {
+            participants.add(legB.deepCopy());
+        }
+        return event;
+    }
+
+    private ObjectNode actionData(JsonNode action) {
+        final var actionData = mapper.createObjectNode();
+        actionData.set("Type", action.get("Type"));
+        if (action.has("Parameters")) {
+            actionData.set("Parameters", action.get("Parameters").deepCopy());
+        }
+        return actionData;
+    }
+
+    private ObjectNode hangupActionData(ObjectNode leg) {
+        final var actionData = mapper.createObjectNode().put("Type", "Hangup");
+        actionData.putObject("Parameters")
+                .put("SipResponseCode", "0")
+                .put("CallId", leg.path("CallId").asText())
+                .put("ParticipantTag", leg.path("ParticipantTag").asText());
+        return actionData;
+    }
+
+    private ObjectNode participant(String tag, String direction, String from, String to) {
+        return mapper.createObjectNode()
+                .put("CallId", UUID.randomUUID().toString())
+                .put("ParticipantTag", tag)
+                .put("To", to)
+                .put("From", from)
+                .put("Direction", direction)
+                .put("StartTimeInMilliseconds", Long.toString(System.currentTimeMillis()))
+                .put("Status", "Connected");
+    }
+
+    private static boolean isDisconnected(ObjectNode leg) {
+        return "Disconnected".equals(leg.path("Status").asText());
+    }
+
+    private static Duration speech(JsonNode params) {
+        return SPEECH_PER_CHARACTER.multipliedBy(params.path("Text").asText().length());
+    }
+}
@@ -0,0 +1,123 @@
+package cloud.cleo.chimesma.simulator;
+
+import cloud.cleo.chimesma.actions.AbstractFlow;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Local stand-in for a SIP Media Application that runs many simulated calls against a Flow at once.
+ *
+ * <pre>
+ * java -jar Simulator/target/simulator.jar --calls 10000 --concurrency 2000 --digits 4,2,0,5 --time-scale 0.01 --report results.json
+ * </pre>
+ *
+ * @author sjensen
+ */
+public final class Simulator {
+
+    static {
+        // Must be set before the first Logger is created
+        if (System.getProperty("log4j2.configurationFile") == null) {
+            System.setProperty("log4j2.configurationFile", "log4j2-simulator.xml");
+        }
+        // Flows may build AWS clients when loaded, they just need a region to do so
+        if (System.getProperty("aws.region") == null && System.getenv("AWS_REGION") == null) {
+            System.setProperty("aws.region", "us-east-1");
+        }
+    }
+
+    private final static Logger log = LogManager.getLogger(Simulator.class);
+
+    private final static Map<String, String> DEFAULTS = Map.of(
+            "flow", "cloud.cleo.chimesma.examples.actions.ExampleFlow",
+            "calls", "1000",
+            "concurrency", "100",
+            // Example Flow: Call Recording menu, listen (nothing recorded yet), back to Main Menu, goodbye
+            "digits", "4,2,0,5",
+            "bot-intent", "Quit",
+            "talk-seconds", "30",
+            "time-scale", "0",
+            // JSON report file, none when empty
+            "report", "");
+
+    private final AbstractFlow flow;
+    private final CallScript script;
+    private final CallStats stats = new CallStats();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public Simulator(AbstractFlow flow, CallScript script) {
+        this.flow = flow;
+        this.script = script;
+    }
+
+    /**
+     * Run calls against the Flow.
+     *
+     * @param calls total number of calls to make
+     * @param concurrency how many calls can be up at the same time
+     * @return the stats for the run
+     * @throws InterruptedException
+     */
+    public CallStats run(int calls, int concurrency) throws InterruptedException {
+        final var permits = new Semaphore(concurrency);
+        // Calls spend nearly all their time waiting on Actions to play out, so a virtual thread per call
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < calls; i++) {
+                permits.acquire();
+                executor.submit(() -> {
+                    try {
+                        stats.callComplete(new SimulatedCall(flow, script, stats, mapper).run());
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+        return stats;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final var options = parseArgs(args);
+
+        final var flow = (AbstractFlow) Class.forName(options.get("flow")).getDeclaredConstructor().newInstance();
+        final var digits = options.get("digits").isBlank() ? List.<String>of() : Arrays.asList(options.get("digits").split(","));
+        final var script = new CallScript(digits, options.get("bot-intent"),
+                Duration.ofSeconds(Long.parseLong(options.get("talk-seconds"))),
+                Double.parseDouble(options.get("time-scale")));
+
+        final var calls = Integer.parseInt(options.get("calls"));
+        final var concurrency = Integer.parseInt(options.get("concurrency"));
+        log.info("Running {} calls against {} with {} concurrent, digits {}", calls, flow.getClass().getSimpleName(), concurrency, digits);
+
+        final var start = System.nanoTime();
+        final var stats = new Simulator(flow, script).run(calls, concurrency);
+        final var report = stats.report(flow.getClass().getName(), concurrency, Duration.ofNanos(System.nanoTime() - start));
+
+        CallStats.print(System.out, report);
+        if (!options.get("report").isBlank()) {
+            report.write(new File(options.get("report")));
+            log.info("Report written to {}", options.get("report"));
+        }
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        final var options = new HashMap<>(DEFAULTS);
+        for (int i = 0; i < args.length; i++) {
+            final var name = args[i].startsWith("--") ? args[i].substring(2) : args[i];
+            if (!DEFAULTS.containsKey(name) || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Unknown option or missing value for " + args[i] + ", options are " + DEFAULTS.keySet());
+            }
+            options.put(name, args[++i]);
+        }
+        return options;
+    }
+}